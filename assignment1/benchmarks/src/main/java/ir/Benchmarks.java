@@ -0,0 +1,479 @@
+/*
+ *   This file is part of the computer assignment for the
+ *   Information Retrieval course at KTH.
+ */
+
+package ir;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.results.Result;
+import org.openjdk.jmh.results.RunResult;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.ChainedOptionsBuilder;
+import org.openjdk.jmh.runner.options.CommandLineOptionException;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+
+/**
+ *   The JMH benchmarks of the search engine. They measure, on a synthetic
+ *   Zipfian corpus (see ZipfCorpus) and on the bundled testing directory:
+ *
+ *     tokenizer                Tokenizer, one document per operation
+ *     hashedIndexInsert        HashedIndex.insert, the tokens of one document per operation
+ *     getPostings              PersistentHashedIndex.getPostings, read through files
+ *     getPostingsMapped        PersistentHashedIndex.getPostings, read through mappings
+ *     searchByIntersection     Searcher.search_by_intersection, two terms
+ *     searchByPhrase           Searcher.search_by_phrase, two words that occur next to each other
+ *     resultTfidf              Searcher.get_result_tfidf, three terms
+ *     expandQuery              KGramIndex.expand_query, a wildcard after a prefix
+ *     spellCheck               SpellChecker.check, a misspelled term
+ *
+ *   The queries are drawn from the terms of the corpus with a fixed seed,
+ *   so every run measures the same work. Every benchmark runs in a JVM of
+ *   its own (see @Fork), since the indexes keep their documents in the
+ *   static maps of Index.
+ *
+ *   The benchmarks are built with "mvn package" in the benchmarks
+ *   directory, and run from the assignment1 directory:
+ *
+ *     java -jar benchmarks/target/benchmarks.jar [options] [JMH options] [regex]
+ *
+ *     -noalloc                   do not profile allocations (-prof gc is on by default)
+ *     -save file                 save the results
+ *     -baseline file             compare with saved results
+ *     -threshold percent         the change counted as a regression (default 10)
+ *
+ *   The corpus is chosen with the JMH option -p corpus=zipf|testing (both
+ *   by default), and -p docs=n, -p testing_dir=dir and -p patterns_file=file
+ *   set the number of Zipf documents, the testing directory and the
+ *   tokenizer patterns. A benchmark that has become slower, or allocates
+ *   more, than in the baseline by more than the threshold is reported as a
+ *   regression, and the exit status is then 1.
+ */
+@BenchmarkMode( Mode.Throughput )
+@OutputTimeUnit( TimeUnit.SECONDS )
+@Warmup( iterations = 3, time = 1 )
+@Measurement( iterations = 5, time = 1 )
+@Fork( value = 1, jvmArgsAppend = "-Xmx1g" )
+public class Benchmarks {
+
+    /** The number of queries of each kind drawn from a corpus. */
+    static final int NUM_QUERIES = 500;
+
+    static final long SEED = 17;
+
+    /** The secondary result of the gc profiler with the bytes allocated per operation. */
+    static final String ALLOC_RESULT = "gc.alloc.rate.norm";
+
+
+    /**
+     *   A corpus with what the benchmarks need: its documents, in memory and
+     *   tokenized, the indexes built from them, and the queries. It is built
+     *   once in every fork.
+     */
+    @State( Scope.Benchmark )
+    public static class Corpus {
+
+        /** zipf for a generated corpus, or testing for the testing directory. */
+        @Param( { "zipf", "testing" } )
+        public String corpus;
+
+        /** The number of documents of the generated corpus. */
+        @Param( "5000" )
+        public int docs;
+
+        @Param( "testing" )
+        public String testing_dir;
+
+        @Param( "patterns.txt" )
+        public String patterns_file;
+
+        List<String> texts = new ArrayList<String>();
+        List<String[]> tokens = new ArrayList<String[]>();
+
+        /** The terms, by decreasing document frequency. */
+        List<String> terms;
+
+        HashedIndex index;
+        KGramIndex kgIndex;
+        PersistentHashedIndex persistent, mapped;
+        Searcher searcher;
+        SpellChecker speller;
+
+        /** The directory of the persistent index, and that of the generated corpus, if any. */
+        File persistent_dir, generated = null;
+
+        /** The queries. */
+        String[] lookups, wildcards;
+        Query[] intersections, phrases, ranked;
+
+        @Setup( Level.Trial )
+        public void setup() throws IOException {
+            File dir;
+            if ( "zipf".equals( corpus )) {
+                generated = Files.createTempDirectory( "ir-zipf" ).toFile();
+                new ZipfCorpus( ZipfCorpus.DEFAULT_VOCABULARY, ZipfCorpus.DEFAULT_EXPONENT, ZipfCorpus.DEFAULT_SEED ).write( generated, docs, ZipfCorpus.DEFAULT_LENGTH );
+                dir = generated;
+            } else if ( "testing".equals( corpus )) {
+                dir = new File( testing_dir );
+            } else {
+                throw new IllegalArgumentException( "Unknown corpus: " + corpus );
+            }
+            read( dir );
+            buildIndexes( dir );
+            drawQueries( new Random( SEED ));
+        }
+
+        @TearDown( Level.Trial )
+        public void close() {
+            Generation.deleteDirectory( persistent_dir );
+            if ( generated != null ) {
+                Generation.deleteDirectory( generated );
+            }
+            clearDocs();
+        }
+
+        /** Reads and tokenizes the documents, and sorts the terms by document frequency. */
+        private void read( File dir ) throws IOException {
+            List<File> files = new ArrayList<File>();
+            Indexer.listFiles( dir, files );
+            Collections.sort( files );
+            Tokenizer tok = new Tokenizer( null, true, false, true, patterns_file );
+            HashMap<String,Integer> df = new HashMap<String,Integer>();
+            for ( File f : files ) {
+                String text = new String( Files.readAllBytes( f.toPath() ), StandardCharsets.UTF_8 );
+                texts.add( text );
+                tok.reset( new StringReader( text ));
+                ArrayList<String> words = new ArrayList<String>();
+                while ( tok.hasMoreTokens() ) {
+                    words.add( tok.nextToken() );
+                }
+                tokens.add( words.toArray( new String[0] ));
+                for ( String w : new HashSet<String>( words )) {
+                    df.merge( w, 1, Integer::sum );
+                }
+            }
+            terms = new ArrayList<String>( df.keySet() );
+            terms.sort( Comparator.comparing( (String t) -> -df.get( t )).thenComparing( t -> t ));
+        }
+
+        /**
+         *  Builds the persistent index first: writing it removes its
+         *  documents from the shared maps that the main-memory index reads.
+         */
+        private void buildIndexes( File dir ) throws IOException {
+            clearDocs();
+            persistent_dir = Files.createTempDirectory( "ir-bench" ).toFile();
+            persistent = new PersistentHashedIndex( persistent_dir.getPath(), false );
+            Indexer indexer = new Indexer( persistent, null, patterns_file );
+            indexer.processFiles( dir, true );
+            persistent.cleanup();
+            mapped = new PersistentHashedIndex( persistent_dir.getPath(), true );
+
+            clearDocs();
+            index = new HashedIndex();
+            kgIndex = new KGramIndex( 2 );
+            indexer = new Indexer( index, kgIndex, patterns_file );
+            indexer.processFiles( dir, true );
+            index.cleanup();
+            searcher = new Searcher( index, kgIndex );
+            speller = new SpellChecker( index, kgIndex, searcher );
+        }
+
+        private void drawQueries( Random random ) {
+            lookups = new String[NUM_QUERIES];
+            for ( int q=0; q<lookups.length; q++ ) {
+                lookups[q] = term( random, terms.size() );
+            }
+
+            intersections = new Query[NUM_QUERIES];
+            for ( int q=0; q<intersections.length; q++ ) {
+                intersections[q] = new Query( term( random, 200 ) + " " + term( random, 2000 ));
+            }
+
+            phrases = new Query[NUM_QUERIES];
+            for ( int q=0; q<phrases.length; q++ ) {
+                String[] words;
+                do {
+                    words = tokens.get( random.nextInt( tokens.size() ));
+                } while ( words.length < 2 );
+                int k = random.nextInt( words.length - 1 );
+                phrases[q] = new Query( words[k] + " " + words[k+1] );
+            }
+
+            ranked = new Query[NUM_QUERIES];
+            for ( int q=0; q<ranked.length; q++ ) {
+                ranked[q] = new Query( term( random, 5000 ) + " " + term( random, 5000 ) + " " + term( random, 5000 ));
+            }
+
+            ArrayList<String> prefixes = new ArrayList<String>();
+            while ( prefixes.size() < NUM_QUERIES ) {
+                String t = term( random, 5000 );
+                if ( t.length() >= 4 ) {
+                    prefixes.add( t.substring( 0, 3 ) + "*" );
+                }
+            }
+            wildcards = prefixes.toArray( new String[0] );
+        }
+
+        /** Returns a term drawn from the <code>top</code> most frequent ones. */
+        String term( Random random, int top ) {
+            return terms.get( random.nextInt( Math.min( top, terms.size() )));
+        }
+    }
+
+
+    /**
+     *   Misspellings of terms of a corpus, with one letter replaced, that the
+     *   spelling corrector has corrections for. They are only drawn for the
+     *   benchmark of the spelling corrector, which fails if there are none.
+     */
+    @State( Scope.Benchmark )
+    public static class Misspellings {
+
+        Query[] queries;
+
+        @Setup( Level.Trial )
+        public void setup( Corpus c ) {
+            Random random = new Random( SEED );
+            ArrayList<Query> misspelled = new ArrayList<Query>();
+            for ( int tries=0; tries<20*NUM_QUERIES && misspelled.size()<NUM_QUERIES/5; tries++ ) {
+                String t = c.term( random, 5000 );
+                if ( t.length() < 5 ) {
+                    continue;
+                }
+                char[] chars = t.toCharArray();
+                chars[1 + random.nextInt( chars.length - 2 )] = (char)('a' + random.nextInt( 26 ));
+                Query q = new Query( new String( chars ));
+                String[] corrections = c.speller.check( q, 10 );
+                if ( corrections != null && corrections.length > 0 ) {
+                    misspelled.add( q );
+                }
+            }
+            if ( misspelled.isEmpty() ) {
+                throw new IllegalStateException( c.corpus + ": no misspellings to correct" );
+            }
+            queries = misspelled.toArray( new Query[0] );
+        }
+    }
+
+
+    /**
+     *   What a benchmark thread keeps from one operation to the next. The
+     *   number of operations so far picks the document or the query of the
+     *   next one.
+     */
+    @State( Scope.Thread )
+    public static class Worker {
+
+        long i = 0;
+
+        Tokenizer tokenizer;
+
+        Intersection intersection = new Intersection();
+
+        /** The index the documents are inserted into. */
+        HashedIndex target = null;
+
+        @Setup( Level.Trial )
+        public void setup( Corpus c ) {
+            tokenizer = new Tokenizer( null, true, false, true, c.patterns_file );
+        }
+
+        /** Returns the next element of an array of n elements. */
+        int next( int n ) {
+            return (int)(i++ % n);
+        }
+    }
+
+
+    /** Empties the document maps shared by the indexes. */
+    static void clearDocs() {
+        Index.docNames.clear();
+        Index.docIDs.clear();
+        Index.docLengths.clear();
+    }
+
+
+    // ==================================================================
+
+
+    @Benchmark
+    public int tokenizer( Corpus c, Worker w ) throws IOException {
+        w.tokenizer.reset( new StringReader( c.texts.get( w.next( c.texts.size() ))));
+        int count = 0;
+        while ( w.tokenizer.hasMoreTokens() ) {
+            w.tokenizer.nextToken();
+            count++;
+        }
+        return count;
+    }
+
+    @Benchmark
+    public HashedIndex hashedIndexInsert( Corpus c, Worker w ) {
+        int n = c.tokens.size();
+        long i = w.i++;
+        // Start over once all documents are in, so the index stays the size of the corpus
+        if ( w.target == null || i % n == 0 ) {
+            w.target = new HashedIndex();
+        }
+        String[] words = c.tokens.get( (int)(i % n) );
+        for ( int k=0; k<words.length; k++ ) {
+            w.target.insert( words[k], (int)i, k );
+        }
+        return w.target;
+    }
+
+    @Benchmark
+    public PostingsList getPostings( Corpus c, Worker w ) {
+        return c.persistent.getPostings( c.lookups[w.next( c.lookups.length )] );
+    }
+
+    @Benchmark
+    public PostingsList getPostingsMapped( Corpus c, Worker w ) {
+        return c.mapped.getPostings( c.lookups[w.next( c.lookups.length )] );
+    }
+
+    @Benchmark
+    public PostingsList searchByIntersection( Corpus c, Worker w ) {
+        return c.searcher.search_by_intersection( c.intersections[w.next( c.intersections.length )], w.intersection );
+    }
+
+    @Benchmark
+    public PostingsList searchByPhrase( Corpus c, Worker w ) {
+        return c.searcher.search_by_phrase( c.phrases[w.next( c.phrases.length )], w.intersection );
+    }
+
+    @Benchmark
+    public PostingsList resultTfidf( Corpus c, Worker w ) {
+        return c.searcher.get_result_tfidf( c.ranked[w.next( c.ranked.length )], NormalizationType.NUMBER_OF_WORDS );
+    }
+
+    @Benchmark
+    public Query expandQuery( Corpus c, Worker w ) {
+        return c.kgIndex.expand_query( c.wildcards[w.next( c.wildcards.length )] );
+    }
+
+    @Benchmark
+    public String[] spellCheck( Corpus c, Misspellings m, Worker w ) {
+        return c.speller.check( m.queries[w.next( m.queries.length )], 10 );
+    }
+
+
+    // ==================================================================
+
+
+    /** Returns the name of a result: the benchmark and the corpus. */
+    static String name( RunResult r ) {
+        return r.getParams().getBenchmark() + ":" + r.getParams().getParam( "corpus" );
+    }
+
+
+    /** Returns the bytes allocated per operation, or NaN if they were not profiled. */
+    static double alloc( RunResult r ) {
+        Result alloc = r.getSecondaryResults().get( ALLOC_RESULT );
+        return alloc == null ? Double.NaN : alloc.getScore();
+    }
+
+
+    /** Writes the results, one per line: name, score and allocation, separated by tabs. */
+    static void save( Collection<RunResult> results, String fname ) throws IOException {
+        try (PrintWriter out = new PrintWriter( new FileWriter( fname ))) {
+            for ( RunResult r : results ) {
+                out.println( name( r ) + "\t" + r.getPrimaryResult().getScore() + "\t" + alloc( r ));
+            }
+        }
+    }
+
+
+    /**
+     *  Compares the results with saved ones, and prints the changes.
+     *
+     *  @return The number of regressions.
+     */
+    static int compare( Collection<RunResult> results, String fname, double threshold ) throws IOException {
+        HashMap<String,double[]> baseline = new HashMap<String,double[]>();
+        try (BufferedReader br = new BufferedReader( new FileReader( fname ))) {
+            String line;
+            while ((line = br.readLine()) != null) {
+                String[] data = line.split( "\t" );
+                baseline.put( data[0], new double[] { Double.parseDouble( data[1] ), Double.parseDouble( data[2] ) });
+            }
+        }
+        System.out.println();
+        System.out.println( String.format( Locale.ROOT, "%-55s %10s %10s", "Compared with " + fname, "score", "alloc" ));
+        int regressions = 0;
+        for ( RunResult r : results ) {
+            double[] base = baseline.get( name( r ));
+            if ( base == null ) {
+                continue;
+            }
+            double alloc = alloc( r );
+            double scoreChange = 100 * (r.getPrimaryResult().getScore() / base[0] - 1);
+            double allocChange = Double.isNaN( alloc ) || Double.isNaN( base[1] ) || base[1] == 0 ? 0 : 100 * (alloc / base[1] - 1);
+            boolean regression = scoreChange < -threshold || allocChange > threshold;
+            if ( regression ) {
+                regressions++;
+            }
+            System.out.println( String.format( Locale.ROOT, "%-55s %+9.1f%% %+9.1f%%%s", name( r ), scoreChange, allocChange, regression ? "  REGRESSION" : "" ));
+        }
+        return regressions;
+    }
+
+
+    public static void main( String[] args ) throws IOException, RunnerException {
+        boolean profile_alloc = true;
+        String save_file = null, baseline_file = null;
+        double threshold = 10;
+        ArrayList<String> jmh_args = new ArrayList<String>();
+        int i = 0;
+        while ( i < args.length ) {
+            String option = args[i++];
+            if ( "-noalloc".equals( option )) {
+                profile_alloc = false;
+            } else if ( "-save".equals( option ) || "-baseline".equals( option ) || "-threshold".equals( option )) {
+                if ( i >= args.length ) {
+                    System.err.println( "Missing value of option: " + option );
+                    System.exit( 2 );
+                }
+                String value = args[i++];
+                if ( "-save".equals( option )) {
+                    save_file = value;
+                } else if ( "-baseline".equals( option )) {
+                    baseline_file = value;
+                } else {
+                    threshold = Double.parseDouble( value );
+                }
+            } else {
+                jmh_args.add( option );
+            }
+        }
+
+        ChainedOptionsBuilder options = null;
+        try {
+            options = new OptionsBuilder().parent( new CommandLineOptions( jmh_args.toArray( new String[0] )));
+        } catch ( CommandLineOptionException e ) {
+            System.err.println( e.getMessage() );
+            System.exit( 2 );
+        }
+        if ( profile_alloc ) {
+            options.addProfiler( GCProfiler.class );
+        }
+        Collection<RunResult> results = new Runner( options.build() ).run();
+        if ( save_file != null ) {
+            save( results, save_file );
+        }
+        if ( baseline_file != null && compare( results, baseline_file, threshold ) > 0 ) {
+            System.exit( 1 );
+        }
+    }
+}
@@ -0,0 +1,166 @@
+/*
+ *   This file is part of the computer assignment for the
+ *   Information Retrieval course at KTH.
+ */
+
+package ir;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+
+
+/**
+ *   Generates a synthetic corpus whose term frequencies follow Zipf's law:
+ *   the r:th most frequent of the terms occurs with a probability
+ *   proportional to 1/r^s.
+ *
+ *   The terms are made-up words of syllables, shorter for the frequent
+ *   ones, so that the tokenizer, the k-gram index and the spelling
+ *   corrector see something word-like. The lengths of the documents vary
+ *   uniformly between half and one and a half times the mean, and
+ *   sentences end with a full stop now and then. The same parameters
+ *   always give the same corpus.
+ *
+ *   Usage: java ir.ZipfCorpus -d dir [-docs n] [-vocabulary n] [-s exponent] [-length n] [-seed n]
+ */
+public class ZipfCorpus {
+
+    public static final int DEFAULT_VOCABULARY = 20000;
+    public static final double DEFAULT_EXPONENT = 1.0;
+    public static final int DEFAULT_LENGTH = 300;
+    public static final long DEFAULT_SEED = 42;
+
+    /** The syllables the terms are made of. */
+    private static final String[] SYLLABLES = {
+        "a", "e", "i", "o", "u", "ba", "be", "bo", "ca", "co", "da", "de", "di", "do", "el", "en", "er",
+        "fa", "fi", "ga", "go", "ha", "he", "in", "is", "ka", "ki", "la", "le", "li", "lo", "ma", "me",
+        "mi", "mo", "na", "ne", "no", "nu", "on", "or", "pa", "pe", "po", "ra", "re", "ri", "ro", "sa",
+        "se", "si", "so", "st", "ta", "te", "th", "ti", "to", "tr", "un", "va", "ve", "vi", "wa", "we"
+    };
+
+    /** The terms, most frequent first. */
+    private final String[] terms;
+
+    /** The cumulative probabilities of the terms. */
+    private final double[] cumulative;
+
+    private final long seed;
+
+
+    public ZipfCorpus( int vocabulary, double exponent, long seed ) {
+        this.seed = seed;
+        Random random = new Random( seed );
+        terms = new String[vocabulary];
+        HashSet<String> used = new HashSet<String>();
+        for ( int r=0; r<vocabulary; r++ ) {
+            // Frequent terms get one or two syllables, rare ones up to six
+            int syllables = 1 + (int)(Math.log( r + 2 ) / Math.log( 8 )) + random.nextInt( 2 );
+            String term;
+            do {
+                StringBuilder word = new StringBuilder();
+                for ( int i=0; i<syllables; i++ ) {
+                    word.append( SYLLABLES[random.nextInt( SYLLABLES.length )] );
+                }
+                term = word.toString();
+                syllables += used.contains( term ) && random.nextInt( 4 ) == 0 ? 1 : 0;
+            } while ( used.contains( term ));
+            used.add( term );
+            terms[r] = term;
+        }
+        cumulative = new double[vocabulary];
+        double sum = 0;
+        for ( int r=0; r<vocabulary; r++ ) {
+            sum += 1.0 / Math.pow( r + 1, exponent );
+            cumulative[r] = sum;
+        }
+        for ( int r=0; r<vocabulary; r++ ) {
+            cumulative[r] /= sum;
+        }
+    }
+
+
+    /** Returns the number of terms. */
+    public int vocabulary() {
+        return terms.length;
+    }
+
+
+    /** Returns the term of the given frequency rank (0 is the most frequent). */
+    public String term( int rank ) {
+        return terms[rank];
+    }
+
+
+    /** Draws the rank of a term. */
+    public int sampleRank( Random random ) {
+        int r = Arrays.binarySearch( cumulative, random.nextDouble() );
+        return Math.min( terms.length - 1, r < 0 ? -r - 1 : r );
+    }
+
+
+    /** Returns the text of a document of <code>length</code> words. */
+    public String document( Random random, int length ) {
+        StringBuilder text = new StringBuilder( 8 * length );
+        for ( int i=0; i<length; i++ ) {
+            text.append( terms[sampleRank( random )] );
+            text.append( random.nextInt( 12 ) == 0 ? ".\n" : " " );
+        }
+        return text.toString();
+    }
+
+
+    /**
+     *  Writes <code>docs</code> documents with <code>mean_length</code>
+     *  words on average to files doc000000.txt ... in a directory, which is
+     *  created if needed.
+     *
+     *  @return The files written.
+     */
+    public List<File> write( File dir, int docs, int mean_length ) throws IOException {
+        dir.mkdirs();
+        Random random = new Random( seed + 1 );
+        ArrayList<File> files = new ArrayList<File>();
+        for ( int d=0; d<docs; d++ ) {
+            int length = mean_length / 2 + random.nextInt( mean_length + 1 );
+            File f = new File( dir, String.format( "doc%06d.txt", d ));
+            try (Writer out = new OutputStreamWriter( new FileOutputStream( f ), StandardCharsets.UTF_8 )) {
+                out.write( document( random, length ));
+            }
+            files.add( f );
+        }
+        return files;
+    }
+
+
+    public static void main( String[] args ) throws IOException {
+        String dir = null;
+        int docs = 10000, vocabulary = DEFAULT_VOCABULARY, length = DEFAULT_LENGTH;
+        double exponent = DEFAULT_EXPONENT;
+        long seed = DEFAULT_SEED;
+        for ( int i=0; i+1<args.length; i+=2 ) {
+            if ( "-d".equals( args[i] )) {
+                dir = args[i+1];
+            } else if ( "-docs".equals( args[i] )) {
+                docs = Integer.parseInt( args[i+1] );
+            } else if ( "-vocabulary".equals( args[i] )) {
+                vocabulary = Integer.parseInt( args[i+1] );
+            } else if ( "-s".equals( args[i] )) {
+                exponent = Double.parseDouble( args[i+1] );
+            } else if ( "-length".equals( args[i] )) {
+                length = Integer.parseInt( args[i+1] );
+            } else if ( "-seed".equals( args[i] )) {
+                seed = Long.parseLong( args[i+1] );
+            } else {
+                System.err.println( "Unknown option: " + args[i] );
+                return;
+            }
+        }
+        if ( dir == null ) {
+            System.err.println( "Usage: java ir.ZipfCorpus -d dir [-docs n] [-vocabulary n] [-s exponent] [-length n] [-seed n]" );
+            return;
+        }
+        new ZipfCorpus( vocabulary, exponent, seed ).write( new File( dir ), docs, length );
+        System.err.println( "Wrote " + docs + " documents to " + dir );
+    }
+}
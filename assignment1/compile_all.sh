@@ -3,4 +3,4 @@ if ! [ -d classes ];
 then
 	mkdir classes
 fi
-javac -cp . -d classes ir/Engine.java ir/HashedIndex.java ir/HITSRanker.java ir/Index.java ir/Indexer.java ir/KGramIndex.java ir/KGramPostingsEntry.java ir/PersistentHashedIndex.java ir/PostingsEntry.java ir/PostingsList.java ir/Query.java ir/QueryType.java ir/RankingType.java ir/Searcher.java ir/SearchGUI.java ir/SpellChecker.java ir/SpellingOptionsDialog.java ir/Tokenizer.java ir/TokenTest.java 
+javac -cp . -d classes ir/Accumulator.java ir/BM25Similarity.java ir/BatchSearch.java ir/DocInfo.java ir/Engine.java ir/EuclideanNorms.java ir/Generation.java ir/HashedIndex.java ir/HITSRanker.java ir/Index.java ir/IndexReader.java ir/Indexer.java ir/Intersection.java ir/KGramIndex.java ir/KGramPostingsEntry.java ir/MappedFile.java ir/Norms.java ir/PersistentHashedIndex.java ir/PhraseMatcher.java ir/PostingsCache.java ir/PostingsCodec.java ir/PostingsCursor.java ir/PostingsList.java ir/Query.java ir/QueryCache.java ir/QueryLikelihoodSimilarity.java ir/QueryType.java ir/RankingType.java ir/Searcher.java ir/SearchGUI.java ir/SearchServer.java ir/SegmentedIndex.java ir/Similarity.java ir/SpellChecker.java ir/SpellingOptionsDialog.java ir/TfIdfSimilarity.java ir/Tokenizer.java ir/TokenTest.java ir/TopKRanker.java ir/VByteCodec.java 
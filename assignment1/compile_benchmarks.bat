@@ -0,0 +1 @@
+call mvn -B -f benchmarks/pom.xml package
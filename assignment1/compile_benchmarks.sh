@@ -0,0 +1,2 @@
+#!/bin/sh
+mvn -B -f benchmarks/pom.xml package
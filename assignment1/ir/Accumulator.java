@@ -0,0 +1,95 @@
+/*
+ *   This file is part of the computer assignment for the
+ *   Information Retrieval course at KTH.
+ */
+
+package ir;
+
+import java.util.Arrays;
+
+
+/**
+ *   Score accumulators for term-at-a-time ranking: dense arrays indexed by
+ *   docID, and the list of docIDs touched since the last clear(), in the
+ *   order they were first touched.
+ *
+ *   The arrays grow with the largest docID seen and are kept between
+ *   queries; clear() only resets the documents that were touched, so a
+ *   query costs the number of postings it reads, not the number of
+ *   documents in the index.
+ */
+public class Accumulator {
+
+    /** The score and length of each touched document. */
+    private double[] scores = new double[1024];
+    private double[] lengths = new double[1024];
+
+    /** Whether each document has been touched. */
+    private boolean[] touched = new boolean[1024];
+
+    /** The touched documents, in the order they were first touched. */
+    private int[] docs = new int[1024];
+    private int size = 0;
+
+
+    /**
+     *  Marks a document as touched, with a score of 0. Returns true if it
+     *  had not been touched before.
+     */
+    public boolean touch( int docID ) {
+        if ( docID >= touched.length ) {
+            int capacity = Math.max( docID + 1, 2*touched.length );
+            scores = Arrays.copyOf( scores, capacity );
+            lengths = Arrays.copyOf( lengths, capacity );
+            touched = Arrays.copyOf( touched, capacity );
+        }
+        if ( touched[docID] ) {
+            return false;
+        }
+        touched[docID] = true;
+        scores[docID] = 0;
+        if ( size == docs.length ) {
+            docs = Arrays.copyOf( docs, 2*size );
+        }
+        docs[size++] = docID;
+        return true;
+    }
+
+    /** Adds to the score of a touched document. */
+    public void add( int docID, double score ) {
+        scores[docID] += score;
+    }
+
+    /** Returns the score of a touched document. */
+    public double score( int docID ) {
+        return scores[docID];
+    }
+
+    /** Sets the length of a touched document. */
+    public void setLength( int docID, double length ) {
+        lengths[docID] = length;
+    }
+
+    /** Returns the length of a touched document. */
+    public double length( int docID ) {
+        return lengths[docID];
+    }
+
+    /** Returns the number of touched documents. */
+    public int size() {
+        return size;
+    }
+
+    /** Returns the ith touched document. */
+    public int docID( int i ) {
+        return docs[i];
+    }
+
+    /** Forgets the touched documents. */
+    public void clear() {
+        for ( int i=0; i<size; i++ ) {
+            touched[docs[i]] = false;
+        }
+        size = 0;
+    }
+}
@@ -0,0 +1,53 @@
+/*
+ *   This file is part of the computer assignment for the
+ *   Information Retrieval course at KTH.
+ */
+
+package ir;
+
+
+/**
+ *   Okapi BM25, with document lengths taken from the one-byte norms:
+ *
+ *     idf * tf * (k1 + 1) / (tf + k1 * (1 - b + b * length / avgLength))
+ *
+ *   where idf = ln(1 + (N - df + 0.5) / (df + 0.5)), which is never negative.
+ */
+public class BM25Similarity implements Similarity {
+
+    /** How quickly repeated occurrences of a term stop adding to the score. */
+    public static final double K1 = 1.2;
+
+    /** How much the score is normalized by the document length. */
+    public static final double B = 0.75;
+
+    private IndexReader index;
+
+    /** The number of documents, and their average length. */
+    private int N;
+    private double avg_length;
+
+
+    public BM25Similarity( IndexReader index ) {
+        this.index = index;
+        N = index.getNumberOfDocs();
+        avg_length = N == 0 ? 1 : Math.max( 1, (double)index.getTotalLength() / N );
+    }
+
+    public double termWeight( String term, int df ) {
+        return Math.log( 1 + (N - df + 0.5) / (df + 0.5) );
+    }
+
+    public double length( int docID ) {
+        return index.getNorm( docID );
+    }
+
+    public double score( double weight, int tf, double length ) {
+        return weight * tf * (K1 + 1) / (tf + K1 * (1 - B + B * length / avg_length));
+    }
+
+    /** The score approaches weight * (k1 + 1) as tf grows. */
+    public double maxScore( String term, double weight ) {
+        return weight * (K1 + 1);
+    }
+}
@@ -0,0 +1,260 @@
+/*
+ *   This file is part of the computer assignment for the
+ *   Information Retrieval course at KTH.
+ */
+
+package ir;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+
+/**
+ *   Runs the queries of a file through a Searcher with a number of
+ *   concurrent workers (see the -batch option of Engine), writes the
+ *   results as a TREC run file, and reports the throughput and the
+ *   latencies per query type.
+ *
+ *   Every line of the query file is a query, optionally preceded by a
+ *   query id and by the query type and ranking, separated by tabs:
+ *
+ *     [id TAB] [type[:ranking] TAB] query
+ *
+ *   for instance "7\tranked:bm25\tzombie attack". The type is
+ *   intersection, phrase or ranked, and the ranking names a RankingType;
+ *   they default to a ranked query with tf-idf. Queries without an id are
+ *   numbered by their line. Empty lines and lines starting with # are
+ *   skipped. Queries are normalized like those typed into the GUI (see
+ *   Query.parse).
+ *
+ *   The run file has one line "id Q0 document rank score tag" for each of
+ *   the first k results of every query. Unranked results are given
+ *   decreasing scores, so that they keep their order.
+ */
+public class BatchSearch {
+
+    /** The default number of results written per query. */
+    public static final int DEFAULT_DEPTH = 1000;
+
+    /** The tag naming the run in the run file. */
+    static final String RUN_TAG = "ir";
+
+    /** One query of the file, and the outcome of running it. */
+    static class BatchQuery {
+        String id;
+        String text;
+        QueryType queryType = QueryType.RANKED_QUERY;
+        RankingType rankingType = RankingType.TF_IDF;
+
+        PostingsList results;
+        long nanos;
+        Throwable error;
+    }
+
+    private final Searcher searcher;
+
+    private final Index index;
+
+    /** The normalization of ranked queries. */
+    private final NormalizationType normType;
+
+    /** The number of queries run at the same time, and the number of results written per query. */
+    private final int workers, depth;
+
+    /** The intersection buffers of the queries not running, at most one per worker. */
+    private final Queue<Intersection> intersections = new ConcurrentLinkedQueue<Intersection>();
+
+
+    public BatchSearch( Searcher searcher, Index index, NormalizationType normType, int workers, int depth ) {
+        this.searcher = searcher;
+        this.index = index;
+        this.normType = normType;
+        this.workers = workers;
+        this.depth = depth;
+    }
+
+
+    /**
+     *  Reads the queries of a file.
+     *
+     *  @throws IllegalArgumentException if a line names an unknown type or ranking.
+     */
+    public static List<BatchQuery> readQueries( String fname ) throws IOException {
+        ArrayList<BatchQuery> queries = new ArrayList<BatchQuery>();
+        try (BufferedReader br = new BufferedReader( new InputStreamReader( new FileInputStream( fname ), StandardCharsets.UTF_8 ))) {
+            String line;
+            int lineNumber = 0;
+            while ((line = br.readLine()) != null) {
+                lineNumber++;
+                if ( line.trim().isEmpty() || line.startsWith( "#" )) {
+                    continue;
+                }
+                String[] fields = line.split( "\t" );
+                BatchQuery q = new BatchQuery();
+                q.id = String.valueOf( lineNumber );
+                q.text = fields[fields.length-1].trim();
+                if ( fields.length >= 3 ) {
+                    q.id = fields[0].trim();
+                    parseSpec( q, fields[1].trim() );
+                } else if ( fields.length == 2 && !parseSpec( q, fields[0].trim() )) {
+                    q.id = fields[0].trim();
+                }
+                queries.add( q );
+            }
+        }
+        return queries;
+    }
+
+
+    /**
+     *  Sets the type and ranking of a query from a field "type[:ranking]".
+     *
+     *  @return false if the field does not start with a query type.
+     */
+    private static boolean parseSpec( BatchQuery q, String spec ) {
+        String[] parts = spec.split( ":" );
+        try {
+            q.queryType = SearchServer.parse( QueryType.class, parts[0], "_QUERY" );
+        } catch ( IllegalArgumentException e ) {
+            return false;
+        }
+        if ( parts.length > 1 ) {
+            q.rankingType = SearchServer.parse( RankingType.class, parts[1], "" );
+        }
+        return true;
+    }
+
+
+    /**
+     *  Runs the queries, and returns the time it took in nanoseconds. The
+     *  results and latency of every query are stored with it.
+     */
+    public long run( List<BatchQuery> queries ) throws InterruptedException {
+        ExecutorService executor = Executors.newFixedThreadPool( workers );
+        try {
+            ArrayList<Future<?>> futures = new ArrayList<Future<?>>();
+            long startTime = System.nanoTime();
+            for ( BatchQuery q : queries ) {
+                futures.add( executor.submit( () -> runQuery( q )));
+            }
+            for ( Future<?> f : futures ) {
+                try {
+                    f.get();
+                } catch ( ExecutionException e ) {
+                    e.printStackTrace();
+                }
+            }
+            return System.nanoTime() - startTime;
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+
+    /** Runs one query, and records its results and latency. */
+    private void runQuery( BatchQuery q ) {
+        Intersection intersection = intersections.poll();
+        if ( intersection == null ) {
+            intersection = new Intersection();
+        }
+        long startTime = System.nanoTime();
+        try {
+            q.results = searcher.search( Query.parse( q.text ), q.queryType, q.rankingType, normType, depth, intersection );
+        } catch ( RuntimeException e ) {
+            e.printStackTrace();
+            q.error = e;
+        }
+        intersections.add( intersection );
+        q.nanos = System.nanoTime() - startTime;
+    }
+
+
+    /**
+     *  Writes the results of the queries as a TREC run file, in the order of
+     *  the query file.
+     */
+    public void writeRun( List<BatchQuery> queries, String fname ) throws IOException {
+        try (PrintWriter out = new PrintWriter( new BufferedWriter( new OutputStreamWriter( new FileOutputStream( fname ), StandardCharsets.UTF_8 )))) {
+            for ( BatchQuery q : queries ) {
+                if ( q.results == null ) {
+                    continue;
+                }
+                int n = Math.min( depth, q.results.size() );
+                for ( int i=0; i<n; i++ ) {
+                    String name = index.getDocName( q.results.docID( i ));
+                    String docno = name == null ? String.valueOf( q.results.docID( i )) : new File( name ).getName().replace( ' ', '_' );
+                    double score = q.queryType == QueryType.RANKED_QUERY ? q.results.score( i ) : n - i;
+                    out.println( q.id + " Q0 " + docno + " " + (i + 1) + " " + score + " " + RUN_TAG );
+                }
+            }
+        }
+    }
+
+
+    /**
+     *  Returns a report of the throughput and the latencies of the queries,
+     *  per query type and overall. The rate of one type is estimated from
+     *  the time the workers spent on its queries, as if they had run alone.
+     *  If results are cached, the report starts with the hit rate of the
+     *  cache, since the queries answered from it count in the throughput.
+     */
+    public String report( List<BatchQuery> queries, long nanos ) {
+        StringBuilder report = new StringBuilder();
+        int failed = 0;
+        for ( BatchQuery q : queries ) {
+            if ( q.error != null ) failed++;
+        }
+        report.append( String.format( Locale.ROOT, "%d queries (%d failed) with %d workers in %.3f s: %.1f queries/s%n",
+                                      queries.size(), failed, workers, nanos / 1e9, queries.size() / (nanos / 1e9) ));
+        QueryCache cache = searcher.cache;
+        if ( cache != null ) {
+            report.append( cache ).append( String.format( "%n" ));
+        }
+        report.append( String.format( Locale.ROOT, "%-20s %8s %10s %10s %10s %10s %10s%n",
+                                      "type", "queries", "qps", "mean ms", "p50 ms", "p95 ms", "p99 ms" ));
+        for ( QueryType type : QueryType.values() ) {
+            ArrayList<BatchQuery> ofType = new ArrayList<BatchQuery>();
+            for ( BatchQuery q : queries ) {
+                if ( q.queryType == type ) ofType.add( q );
+            }
+            if ( !ofType.isEmpty() ) {
+                report.append( row( type.toString(), ofType, -1 ));
+            }
+        }
+        if ( !queries.isEmpty() ) {
+            report.append( row( "all", queries, queries.size() / (nanos / 1e9) ));
+        }
+        return report.toString();
+    }
+
+
+    /** Returns a line of the report, with the given rate, or the estimated one if it is negative. */
+    private String row( String name, List<BatchQuery> queries, double qps ) {
+        long[] nanos = new long[queries.size()];
+        long busy = 0;
+        for ( int i=0; i<nanos.length; i++ ) {
+            nanos[i] = queries.get( i ).nanos;
+            busy += nanos[i];
+        }
+        Arrays.sort( nanos );
+        if ( qps < 0 ) {
+            qps = busy == 0 ? 0 : nanos.length * Math.min( workers, nanos.length ) / (busy / 1e9);
+        }
+        return String.format( Locale.ROOT, "%-20s %8d %10.1f %10.3f %10.3f %10.3f %10.3f%n",
+                              name, nanos.length, qps, busy / 1e6 / nanos.length,
+                              percentile( nanos, 50 ) / 1e6, percentile( nanos, 95 ) / 1e6, percentile( nanos, 99 ) / 1e6 );
+    }
+
+
+    /** Returns the p:th percentile of sorted values (nearest rank). */
+    static long percentile( long[] sorted, double p ) {
+        int rank = (int)Math.ceil( p / 100 * sorted.length );
+        return sorted[Math.max( 0, Math.min( sorted.length, rank ) - 1 )];
+    }
+}
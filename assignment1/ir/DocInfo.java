@@ -0,0 +1,205 @@
+/*
+ *   This file is part of the computer assignment for the
+ *   Information Retrieval course at KTH.
+ */
+
+package ir;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+
+
+/**
+ *   The names and lengths of the documents of a persistent index, read
+ *   through a memory mapping of the doc info file. Nothing is parsed when
+ *   the file is opened; every lookup reads the mapped bytes it needs.
+ *
+ *   The file covers the n docIDs from first_doc up to first_doc+n, and
+ *   consists of (all numbers big-endian):
+ *
+ *     int  first_doc, n, m  the range of docIDs and the number of documents
+ *     int  length[n]        the document lengths, or -1 for docIDs without a document
+ *     long name_ptr[n+1]    where the names start in the name heap; the name
+ *                           of docID first_doc+i ends where the next one starts
+ *     int  by_name[m]       the docIDs sorted by file name (the last path component)
+ *     byte heap[]           the names (paths) of the documents in UTF-8
+ */
+public class DocInfo {
+
+    /** The size of the header. */
+    static final int HEADER_SIZE = 12;
+
+    /** The mapped file. */
+    private MappedFile map;
+
+    /** The lowest docID covered by the file. */
+    private int first_doc;
+
+    /** The number of docIDs covered by the file. */
+    private int n;
+
+    /** The number of documents in the file. */
+    private int m;
+
+    /** Where the name pointers, the sorted docIDs and the name heap start. */
+    private long name_ptrs, by_name, heap;
+
+
+    /**
+     *  Opens and maps a doc info file.
+     */
+    public DocInfo( String fname ) throws IOException {
+        try (RandomAccessFile file = new RandomAccessFile( fname, "r" )) {
+            map = new MappedFile( file );
+        }
+        first_doc = getInt( 0 );
+        n = getInt( 4 );
+        m = getInt( 8 );
+        name_ptrs = HEADER_SIZE + 4L * n;
+        by_name = name_ptrs + 8L * (n + 1);
+        heap = by_name + 4L * m;
+    }
+
+
+    /**
+     *  Writes the names and lengths of the documents with docIDs from
+     *  <code>first_doc</code> up to (but not including) <code>end_doc</code>
+     *  to a doc info file.
+     */
+    public static void write( String fname, Map<Integer,String> names, Map<Integer,Integer> lengths, int first_doc, int end_doc ) throws IOException {
+        int last = first_doc - 1;
+        ArrayList<Integer> docs = new ArrayList<Integer>();
+        for ( int docID : names.keySet() ) {
+            if ( docID >= first_doc && docID < end_doc ) {
+                docs.add( docID );
+                last = Math.max( last, docID );
+            }
+        }
+        int n = last - first_doc + 1;
+        byte[][] data = new byte[n][];
+        for ( int docID : docs ) {
+            data[docID - first_doc] = names.get( docID ).getBytes( StandardCharsets.UTF_8 );
+        }
+        final HashMap<Integer,String> file_names = new HashMap<Integer,String>();
+        for ( int docID : docs ) {
+            file_names.put( docID, fileName( names.get( docID )));
+        }
+        Collections.sort( docs, (a, b) -> {
+            int c = file_names.get( a ).compareTo( file_names.get( b ));
+            return c != 0 ? c : Integer.compare( a, b );
+        });
+
+        try (DataOutputStream out = new DataOutputStream( new BufferedOutputStream( new FileOutputStream( fname )))) {
+            out.writeInt( first_doc );
+            out.writeInt( n );
+            out.writeInt( docs.size() );
+            for ( int i=0; i<n; i++ ) {
+                Integer length = lengths.get( first_doc + i );
+                out.writeInt( data[i] == null ? -1 : length == null ? 0 : length );
+            }
+            long ptr = 0;
+            for ( int i=0; i<n; i++ ) {
+                out.writeLong( ptr );
+                ptr += data[i] == null ? 0 : data[i].length;
+            }
+            out.writeLong( ptr );
+            for ( int docID : docs ) {
+                out.writeInt( docID );
+            }
+            for ( int i=0; i<n; i++ ) {
+                if ( data[i] != null ) {
+                    out.write( data[i] );
+                }
+            }
+        }
+    }
+
+
+    // ==================================================================
+
+
+    /** Returns the docID after the last one covered by the file. */
+    public int end() {
+        return first_doc + n;
+    }
+
+
+    /** Returns the number of documents. */
+    public int size() {
+        return m;
+    }
+
+
+    /** Returns the name (path) of a document, or null if there is no such document. */
+    public String getDocName( int docID ) {
+        if ( !contains( docID )) {
+            return null;
+        }
+        long i = docID - first_doc;
+        long start = getLong( name_ptrs + 8 * i );
+        long end = getLong( name_ptrs + 8 * (i + 1) );
+        byte[] name = new byte[(int)(end - start)];
+        map.slice( heap + start, name.length ).get( name );
+        return new String( name, StandardCharsets.UTF_8 );
+    }
+
+
+    /** Returns the length of a document, or 0 if there is no such document. */
+    public int getDocLength( int docID ) {
+        return contains( docID ) ? getInt( HEADER_SIZE + 4L * (docID - first_doc) ) : 0;
+    }
+
+
+    /**
+     *  Returns the docID of the document with the given file name (the last
+     *  component of its path), or -1 if there is no such document. If several
+     *  documents have the same file name, the one with the highest docID is
+     *  returned.
+     */
+    public int getDocID( String fileName ) {
+        int lo = 0, hi = m;
+        while ( lo < hi ) {
+            int mid = (lo + hi) >>> 1;
+            if ( fileName( getDocName( getInt( by_name + 4L * mid ))).compareTo( fileName ) <= 0 ) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        if ( lo == 0 ) {
+            return -1;
+        }
+        int docID = getInt( by_name + 4L * (lo - 1) );
+        return fileName( getDocName( docID )).equals( fileName ) ? docID : -1;
+    }
+
+
+    /** Returns true if there is a document with this docID. */
+    private boolean contains( int docID ) {
+        return docID >= first_doc && docID - first_doc < n && getInt( HEADER_SIZE + 4L * (docID - first_doc) ) >= 0;
+    }
+
+
+    private int getInt( long ptr ) {
+        return map.slice( ptr, 4 ).getInt();
+    }
+
+
+    private long getLong( long ptr ) {
+        return map.slice( ptr, 8 ).getLong();
+    }
+
+
+    /**
+     *  Returns the last component of a path, like Index.getFileName.
+     */
+    static String fileName( String path ) {
+        String result = "";
+        StringTokenizer tok = new StringTokenizer( path, "\\/" );
+        while ( tok.hasMoreTokens() ) {
+            result = tok.nextToken();
+        }
+        return result;
+    }
+}
@@ -9,7 +9,9 @@ package ir;
 
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.CountDownLatch;
 import java.io.File;
+import java.io.IOException;
 
 /**
  *  This is the main class for the search engine.
@@ -17,8 +19,7 @@ import java.io.File;
 public class Engine {
 
     /** The inverted index. */
-    Index index = new HashedIndex();
-    // Index index = new PersistentHashedIndex();
+    Index index;
 
     /** The indexer creating the search index. */
     Indexer indexer;
@@ -32,14 +33,23 @@ public class Engine {
     /** Spell checker */
     SpellChecker speller;
 
-    /** The engine GUI. */
+    /** The engine GUI, or null when running as a server or a batch. */
     SearchGUI gui;
 
+    /** The HTTP server answering searches, or null when running with the GUI. */
+    SearchServer server;
+
     /** Directories that should be indexed. */
     ArrayList<String> dirNames = new ArrayList<String>();
 
-    /** Lock to prevent simultaneous access to the index. */
-    Object indexLock = new Object();
+    /**
+     *  Released when the index can be searched. The persistent and the
+     *  segmented indexes publish immutable snapshots of what has been
+     *  committed, so searches read them without locking, also while new
+     *  files are indexed. The main-memory index is built in place, and
+     *  searches wait until it is done.
+     */
+    final CountDownLatch indexReady = new CountDownLatch( 1 );
 
     /** The patterns matching non-standard words (e-mail addresses, etc.) */
     String patterns_file = null;
@@ -53,8 +63,61 @@ public class Engine {
     /** For persistent indexes, we might not need to do any indexing. */
     boolean is_indexing = true;
 
-    /** write the euclidean lengths to disk */
-    boolean is_writing_lenghts = false; // after finishing, set to false
+    /** Use the disk-based PersistentHashedIndex instead of the main-memory HashedIndex. */
+    boolean is_persistent = false;
+
+    /** Keep the persistent index as segments, and only index new or changed files. */
+    boolean is_incremental = false;
+
+    /** Serve lookups in the persistent index from memory-mapped files. */
+    boolean is_memory_mapped = false;
+
+    /** Check the checksums of the files of a persistent index when it is opened. */
+    boolean verify_checksums = false;
+
+    /** The fraction of occupied slots in the dictionary of a persistent index. */
+    double load_factor = PersistentHashedIndex.DEFAULT_LOAD_FACTOR;
+
+    /** Memory budget (in MB) of a persistent index before it flushes a block to disk, or 0 for the default. */
+    long memory_budget_mb = 0;
+
+    /** The number of threads tokenizing files during indexing. */
+    int indexing_threads = 1;
+
+    /** The number of docID ranges a query is evaluated in, in parallel. */
+    int search_threads = 1;
+
+    /**
+     *  The memory budget (in megabytes) of the query result cache, or 0 to
+     *  cache no results. By default (-1), results are cached in
+     *  QueryCache.DEFAULT_MAX_BYTES, except in a batch, whose timings would
+     *  otherwise measure the cache rather than the searches.
+     */
+    long cache_mb = -1;
+
+    /** The memory budget (in megabytes) of the cache of postings lists read from disk, or 0 for no cache. */
+    long postings_cache_mb = 0;
+
+    /** The number of most frequent terms whose postings lists are kept in the cache. */
+    int pinned_terms = 0;
+
+    /** The port to serve searches on without the GUI, or 0 to run the GUI. */
+    int server_port = 0;
+
+    /** The number of requests to the server that may wait while others are evaluated. */
+    int server_queue = SearchServer.DEFAULT_MAX_QUEUED;
+
+    /** The file of queries to run without the GUI, or null. */
+    String batch_file = null;
+
+    /** The TREC run file the results of the batch are written to. */
+    String run_file = "run.txt";
+
+    /** The number of queries of the batch run at the same time. */
+    int batch_workers = 1;
+
+    /** The number of results per query written to the run file. */
+    int batch_depth = BatchSearch.DEFAULT_DEPTH;
 
     /* ----------------------------------------------- */
 
@@ -65,49 +128,147 @@ public class Engine {
      */
     public Engine( String[] args ) {
         decodeArgs( args );
+        Generation.setVerifyChecksums( verify_checksums );
+        if ( is_incremental ) {
+            SegmentedIndex segmentedIndex = new SegmentedIndex( is_memory_mapped );
+            segmentedIndex.setLoadFactor( load_factor );
+            if ( memory_budget_mb > 0 ) {
+                segmentedIndex.setMemoryBudget( memory_budget_mb << 20 );
+            }
+            if ( postings_cache_mb > 0 ) {
+                segmentedIndex.setPostingsCache( new PostingsCache( postings_cache_mb << 20 ), pinned_terms );
+            }
+            index = segmentedIndex;
+        } else if ( is_persistent ) {
+            PersistentHashedIndex persistentIndex = new PersistentHashedIndex( is_memory_mapped );
+            persistentIndex.setLoadFactor( load_factor );
+            if ( memory_budget_mb > 0 ) {
+                persistentIndex.setMemoryBudget( memory_budget_mb << 20 );
+            }
+            if ( postings_cache_mb > 0 ) {
+                persistentIndex.setPostingsCache( new PostingsCache( postings_cache_mb << 20 ), pinned_terms );
+            }
+            index = persistentIndex;
+        } else {
+            index = new HashedIndex();
+        }
         indexer = new Indexer( index, kgIndex, patterns_file );
+        indexer.setThreads( indexing_threads );
         searcher = new Searcher( index, kgIndex );
+        searcher.setPartitions( search_threads );
+        if ( cache_mb < 0 ) {
+            cache_mb = batch_file == null ? QueryCache.DEFAULT_MAX_BYTES >> 20 : 0;
+        }
+        if ( cache_mb > 0 ) {
+            searcher.setCache( new QueryCache( QueryCache.DEFAULT_MAX_ENTRIES, cache_mb << 20 ));
+        }
         speller = new SpellChecker(index, kgIndex, searcher);
-        gui = new SearchGUI( this );
-        gui.init();
+        if ( server_port > 0 ) {
+            try {
+                server = new SearchServer( this, server_port, Runtime.getRuntime().availableProcessors(), server_queue );
+                server.start();
+            } catch ( IOException e ) {
+                e.printStackTrace();
+                System.exit( 1 );
+            }
+        } else if ( batch_file == null ) {
+            gui = new SearchGUI( this );
+            gui.init();
+        }
+        if ( !(index instanceof HashedIndex) ) {
+            indexReady.countDown();
+        }
         /* 
          *   Calls the indexer to index the chosen directory structure.
-         *   Access to the index is synchronized since we don't want to 
-         *   search at the same time we're indexing new files (this might 
-         *   corrupt the index).
+         *   Searches of the main-memory index wait until it is done (see
+         *   indexReady).
          */
         if (is_indexing) {
-            synchronized ( indexLock ) {
-                gui.displayInfoText( "Indexing, please wait..." );
-                long startTime = System.currentTimeMillis();
-                for ( int i=0; i<dirNames.size(); i++ ) {
-                    File dokDir = new File( dirNames.get( i ));
-                    indexer.processFiles( dokDir, is_indexing );
-                }
-                long elapsedTime = System.currentTimeMillis() - startTime;
-                System.out.println("The number of terms are "+String.valueOf(indexer.get_size()));
-                gui.displayInfoText( String.format( "Indexing done in %.1f seconds.", elapsedTime/1000.0 ));
-                index.cleanup();
-
-                String[] kgrams;
-            
-                kgrams = new String[]{"ve"};
-                print_examples(kgrams);
-    
-                kgrams = new String[]{"th","he"};
-                print_examples(kgrams);
-
+            displayInfoText( "Indexing, please wait..." );
+            long startTime = System.currentTimeMillis();
+            try {
+                if ( index instanceof SegmentedIndex ) {
+                    // Only the files added or changed since the last update are indexed.
+                    SegmentedIndex segmentedIndex = (SegmentedIndex)index;
+                    List<File> files = segmentedIndex.beginUpdate( dirNames );
+                    indexer.setNextDocID( segmentedIndex.getNextDocID() );
+                    indexer.indexFiles( files );
+                } else {
+                    for ( int i=0; i<dirNames.size(); i++ ) {
+                        File dokDir = new File( dirNames.get( i ));
+                        indexer.processFiles( dokDir, is_indexing );
+                    }
+                }
+            } catch ( RuntimeException e ) {
+                // The index is incomplete, so it is not committed
+                e.printStackTrace();
+                displayInfoText( "Indexing failed, the index was not written." );
+                indexReady.countDown();
+                return;
             }
+            long elapsedTime = System.currentTimeMillis() - startTime;
+            System.out.println("The number of terms are "+String.valueOf(indexer.get_size()));
+            displayInfoText( String.format( "Indexing done in %.1f seconds.", elapsedTime/1000.0 ));
+            index.cleanup();
+
+            String[] kgrams;
+        
+            kgrams = new String[]{"ve"};
+            print_examples(kgrams);
+
+            kgrams = new String[]{"th","he"};
+            print_examples(kgrams);
+
         } else {
-            gui.displayInfoText( "Index is loaded from disk" );
+            displayInfoText( "Index is loaded from disk" );
         }
+        indexReady.countDown();
+        if ( batch_file != null ) {
+            runBatch();
+        }
+    }
+
+
+    /**
+     *  Runs the queries of the batch file, writes their results to the run
+     *  file, and prints the throughput and latencies.
+     */
+    private void runBatch() {
+        try {
+            List<BatchSearch.BatchQuery> queries = BatchSearch.readQueries( batch_file );
+            BatchSearch batch = new BatchSearch( searcher, index, NormalizationType.NUMBER_OF_WORDS, batch_workers, batch_depth );
+            long nanos = batch.run( queries );
+            batch.writeRun( queries, run_file );
+            System.out.print( batch.report( queries, nanos ));
+        } catch ( IOException | IllegalArgumentException e ) {
+            e.printStackTrace();
+        } catch ( InterruptedException e ) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
 
-        if(is_writing_lenghts){
-            indexer.write_lengths_to_disk();
+    /**
+     *  Shows a message in the GUI, or on standard error when running as a
+     *  server.
+     */
+    private void displayInfoText( String info ) {
+        if ( gui != null ) {
+            gui.displayInfoText( info );
+        } else {
+            System.err.println( info );
         }
     }
 
 
+    /**
+     *  Waits until the index can be searched.
+     */
+    void awaitIndex() throws InterruptedException {
+        indexReady.await();
+    }
+
+
     /* ----------------------------------------------- */
 
     /**
@@ -139,6 +300,85 @@ public class Engine {
             } else if ( "-ni".equals( args[i] )) {
                 i++;
                 is_indexing = false;
+            } else if ( "-persistent".equals( args[i] )) {
+                i++;
+                is_persistent = true;
+            } else if ( "-incremental".equals( args[i] )) {
+                i++;
+                is_persistent = true;
+                is_incremental = true;
+            } else if ( "-mmap".equals( args[i] )) {
+                i++;
+                is_persistent = true;
+                is_memory_mapped = true;
+            } else if ( "-verify".equals( args[i] )) {
+                i++;
+                verify_checksums = true;
+            } else if ( "-lf".equals( args[i] )) {
+                i++;
+                if ( i < args.length ) {
+                    load_factor = Double.parseDouble( args[i++] );
+                }
+            } else if ( "-mem".equals( args[i] )) {
+                i++;
+                if ( i < args.length ) {
+                    memory_budget_mb = Long.parseLong( args[i++] );
+                }
+            } else if ( "-threads".equals( args[i] )) {
+                i++;
+                if ( i < args.length ) {
+                    indexing_threads = Integer.parseInt( args[i++] );
+                }
+            } else if ( "-search_threads".equals( args[i] )) {
+                i++;
+                if ( i < args.length ) {
+                    search_threads = Integer.parseInt( args[i++] );
+                }
+            } else if ( "-postings_cache".equals( args[i] )) {
+                i++;
+                if ( i < args.length ) {
+                    postings_cache_mb = Long.parseLong( args[i++] );
+                }
+            } else if ( "-pin".equals( args[i] )) {
+                i++;
+                if ( i < args.length ) {
+                    pinned_terms = Integer.parseInt( args[i++] );
+                }
+            } else if ( "-server".equals( args[i] )) {
+                i++;
+                if ( i < args.length ) {
+                    server_port = Integer.parseInt( args[i++] );
+                }
+            } else if ( "-queue".equals( args[i] )) {
+                i++;
+                if ( i < args.length ) {
+                    server_queue = Integer.parseInt( args[i++] );
+                }
+            } else if ( "-batch".equals( args[i] )) {
+                i++;
+                if ( i < args.length ) {
+                    batch_file = args[i++];
+                }
+            } else if ( "-run".equals( args[i] )) {
+                i++;
+                if ( i < args.length ) {
+                    run_file = args[i++];
+                }
+            } else if ( "-workers".equals( args[i] )) {
+                i++;
+                if ( i < args.length ) {
+                    batch_workers = Integer.parseInt( args[i++] );
+                }
+            } else if ( "-depth".equals( args[i] )) {
+                i++;
+                if ( i < args.length ) {
+                    batch_depth = Integer.parseInt( args[i++] );
+                }
+            } else if ( "-cache".equals( args[i] )) {
+                i++;
+                if ( i < args.length ) {
+                    cache_mb = Long.parseLong( args[i++] );
+                }
             } else {
                 System.err.println( "Unknown option: " + args[i] );
                 break;
@@ -0,0 +1,113 @@
+/*
+ *   This file is part of the computer assignment for the
+ *   Information Retrieval course at KTH.
+ */
+
+package ir;
+
+import java.io.*;
+
+
+/**
+ *   The Euclidean lengths of the documents of an index: the lengths of
+ *   their tf-idf vectors, sqrt(sum of (tf * ln(N/df))^2 over their terms).
+ *
+ *   The lengths are computed while the postings lists are written: every
+ *   list adds the squared weights of its term to the documents it contains,
+ *   and finish() takes the square roots once all lists have been added. No
+ *   term vectors of the documents are kept. The doc norm file covers the n
+ *   docIDs from first_doc up to first_doc+n, and consists of (all numbers
+ *   big-endian):
+ *
+ *     int   first_doc, n   the range of docIDs
+ *     float length[n]      the Euclidean lengths, or 0 for docIDs without a document
+ */
+public class EuclideanNorms {
+
+    /** The lowest docID covered. */
+    private int first_doc;
+
+    /** The sums of squared weights while the lists are added, then the lengths. */
+    private double[] sums;
+    private float[] lengths;
+
+    /** The number of documents, N in the idf. */
+    private int num_docs;
+
+
+    /**
+     *  Starts computing the lengths of <code>num_docs</code> documents
+     *  with docIDs from <code>first_doc</code> up to (but not including)
+     *  <code>end_doc</code>.
+     */
+    public EuclideanNorms( int first_doc, int end_doc, int num_docs ) {
+        this.first_doc = first_doc;
+        this.num_docs = num_docs;
+        sums = new double[Math.max( 0, end_doc - first_doc )];
+    }
+
+
+    /**
+     *  Reads a doc norm file.
+     */
+    public EuclideanNorms( String fname ) throws IOException {
+        try (DataInputStream in = new DataInputStream( new BufferedInputStream( new FileInputStream( fname )))) {
+            first_doc = in.readInt();
+            lengths = new float[in.readInt()];
+            for ( int i=0; i<lengths.length; i++ ) {
+                lengths[i] = in.readFloat();
+            }
+        }
+    }
+
+
+    /**
+     *  Adds the weights of a term to the documents of its postings list.
+     */
+    public void add( PostingsList list ) {
+        double idf = Math.log( num_docs / (double)list.size() );
+        for ( int i=0; i<list.size(); i++ ) {
+            double weight = list.tf(i) * idf;
+            sums[list.docID(i) - first_doc] += weight * weight;
+        }
+    }
+
+
+    /**
+     *  Computes the lengths, once all postings lists have been added.
+     */
+    public void finish() {
+        lengths = new float[sums.length];
+        for ( int i=0; i<sums.length; i++ ) {
+            lengths[i] = (float)Math.sqrt( sums[i] );
+        }
+        sums = null;
+    }
+
+
+    /**
+     *  Writes the lengths to a file.
+     */
+    public void write( String fname ) throws IOException {
+        try (DataOutputStream out = new DataOutputStream( new BufferedOutputStream( new FileOutputStream( fname )))) {
+            out.writeInt( first_doc );
+            out.writeInt( lengths.length );
+            for ( float length : lengths ) {
+                out.writeFloat( length );
+            }
+        }
+    }
+
+
+    /** Returns the docID after the last one covered. */
+    public int end() {
+        return first_doc + lengths.length;
+    }
+
+
+    /** Returns the Euclidean length of a document, or 0 if it is not covered. */
+    public double getLength( int docID ) {
+        int i = docID - first_doc;
+        return i >= 0 && i < lengths.length ? lengths[i] : 0;
+    }
+}
@@ -0,0 +1,277 @@
+/*
+ *   This file is part of the computer assignment for the
+ *   Information Retrieval course at KTH.
+ */
+
+package ir;
+
+import java.io.*;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedInputStream;
+
+
+/**
+ *   One committed version of a set of index files.
+ *
+ *   Every commit writes its files to a new directory <code>gen&lt;n&gt;</code>
+ *   under a base directory, with n one higher than any earlier generation.
+ *   Files of earlier generations are never modified. When all files are
+ *   written and synced to disk, a manifest with the length and CRC32 checksum
+ *   of each file is written to a temporary file, synced, and renamed into
+ *   place. A generation without a manifest is therefore unfinished, and one
+ *   whose files do not match their manifest is damaged. Readers use the
+ *   newest generation that is neither.
+ *
+ *   Opening a generation only compares the lengths of the files with the
+ *   manifest, which catches unfinished and truncated files without reading
+ *   them. Computing the checksums reads the whole index, and is only done
+ *   if asked for (see setVerifyChecksums, and the -verify option of Engine).
+ */
+public class Generation {
+
+    /** The directory names of generations start with this prefix. */
+    public static final String GENERATION_PREFIX = "gen";
+
+    /** The manifest file name */
+    public static final String MANIFEST_FNAME = "manifest";
+
+    /** The number of generations kept on disk: the current one and the one before it. */
+    public static final int KEEP = 2;
+
+    /** If true, latest() also checks the checksums of the files. */
+    private static volatile boolean verify_checksums = false;
+
+    /** The directory of this generation. */
+    final File dir;
+
+    /** The number of this generation. */
+    final long number;
+
+
+    private Generation( File base, long number ) {
+        this.dir = new File( base, GENERATION_PREFIX + number );
+        this.number = number;
+    }
+
+
+    /** Returns the path of a file in this generation. */
+    public String file( String fname ) {
+        return new File( dir, fname ).getPath();
+    }
+
+
+    // ==================================================================
+
+
+    /**
+     *  Makes latest() compare the checksums of the files with the manifest,
+     *  and not only their lengths. Must be called before the index is opened.
+     */
+    public static void setVerifyChecksums( boolean verify ) {
+        verify_checksums = verify;
+    }
+
+
+    /**
+     *  Returns the newest generation under <code>base</code> whose files
+     *  match its manifest, or null if there is none.
+     */
+    public static Generation latest( String base ) {
+        File b = new File( base );
+        List<Long> numbers = numbers( b );
+        for ( int i=numbers.size()-1; i>=0; i-- ) {
+            Generation g = new Generation( b, numbers.get(i) );
+            String problem = g.verify( verify_checksums );
+            if ( problem == null ) {
+                return g;
+            }
+            System.err.println( "Skipping generation " + g.dir + ": " + problem );
+        }
+        return null;
+    }
+
+
+    /**
+     *  Creates an empty directory for a new generation under <code>base</code>,
+     *  numbered after all existing generations.
+     */
+    public static Generation create( String base ) {
+        File b = new File( base );
+        b.mkdirs();
+        List<Long> numbers = numbers( b );
+        long number = numbers.isEmpty() ? 1 : numbers.get(numbers.size()-1) + 1;
+        Generation g = new Generation( b, number );
+        g.dir.mkdirs();
+        return g;
+    }
+
+
+    /**
+     *  Deletes the generations under <code>base</code> that are older than
+     *  <code>current</code>, except for the newest finished one among them,
+     *  which is kept to fall back on. Generations newer than
+     *  <code>current</code> are left alone. The generations kept were
+     *  checksummed when they were committed, so only the lengths of their
+     *  files are checked.
+     *
+     *  @return The generations kept, <code>current</code> first.
+     */
+    public static List<Generation> prune( String base, Generation current ) {
+        File b = new File( base );
+        List<Long> numbers = numbers( b );
+        ArrayList<Generation> kept = new ArrayList<Generation>();
+        kept.add( current );
+        for ( int i=numbers.size()-1; i>=0; i-- ) {
+            long number = numbers.get(i);
+            if ( number >= current.number ) {
+                continue;
+            }
+            Generation g = new Generation( b, number );
+            if ( kept.size() < KEEP && g.verify( false ) == null ) {
+                kept.add( g );
+            } else {
+                deleteDirectory( g.dir );
+            }
+        }
+        return kept;
+    }
+
+
+    /** Returns the numbers of the generation directories under <code>base</code>, in increasing order. */
+    private static List<Long> numbers( File base ) {
+        ArrayList<Long> numbers = new ArrayList<Long>();
+        String[] names = base.list();
+        if ( names == null ) {
+            return numbers;
+        }
+        for ( String name : names ) {
+            if ( name.startsWith( GENERATION_PREFIX ) && name.length() > GENERATION_PREFIX.length() ) {
+                try {
+                    numbers.add( Long.parseLong( name.substring( GENERATION_PREFIX.length() )));
+                } catch ( NumberFormatException e ) {
+                }
+            }
+        }
+        Collections.sort( numbers );
+        return numbers;
+    }
+
+
+    // ==================================================================
+
+
+    /**
+     *  Finishes this generation: syncs the given files to disk and then
+     *  writes the manifest. The generation is visible to readers once
+     *  this method returns.
+     */
+    public void commit( String... fnames ) throws IOException {
+        StringBuilder manifest = new StringBuilder();
+        manifest.append( GENERATION_PREFIX ).append( ";" ).append( number ).append( "\n" );
+        for ( String fname : fnames ) {
+            File f = new File( dir, fname );
+            sync( f );
+            manifest.append( fname ).append( ";" ).append( f.length() ).append( ";" ).append( Long.toHexString( checksum( f ))).append( "\n" );
+        }
+        File tmp = new File( dir, MANIFEST_FNAME + ".tmp" );
+        try (FileOutputStream out = new FileOutputStream( tmp )) {
+            out.write( manifest.toString().getBytes( "UTF-8" ));
+            out.getFD().sync();
+        }
+        File target = new File( dir, MANIFEST_FNAME );
+        if ( !tmp.renameTo( target )) {
+            throw new IOException( "Could not rename " + tmp + " to " + target );
+        }
+        syncDirectory( dir );
+    }
+
+
+    /**
+     *  Checks the files of this generation against its manifest: that they
+     *  exist and have the right lengths, and if <code>checksums</code> is
+     *  true, that they have the right checksums.
+     *
+     *  @return A description of the first problem found, or null if there is none.
+     */
+    String verify( boolean checksums ) {
+        File manifest = new File( dir, MANIFEST_FNAME );
+        if ( !manifest.exists() ) {
+            return "no manifest (unfinished commit)";
+        }
+        try (BufferedReader br = new BufferedReader( new InputStreamReader( new FileInputStream( manifest ), "UTF-8" ))) {
+            String line = br.readLine();
+            if ( line == null || !line.equals( GENERATION_PREFIX + ";" + number )) {
+                return "manifest belongs to another generation";
+            }
+            while ((line = br.readLine()) != null) {
+                String[] data = line.split( ";" );
+                File f = new File( dir, data[0] );
+                if ( !f.exists() ) {
+                    return data[0] + " is missing";
+                }
+                if ( f.length() != Long.parseLong( data[1] )) {
+                    return data[0] + " has " + f.length() + " bytes instead of " + data[1];
+                }
+                if ( checksums && checksum( f ) != Long.parseLong( data[2], 16 )) {
+                    return data[0] + " has a bad checksum";
+                }
+            }
+        } catch ( IOException | RuntimeException e ) {
+            return "unreadable manifest (" + e + ")";
+        }
+        return null;
+    }
+
+
+    /** Computes the CRC32 checksum of a file. */
+    static long checksum( File f ) throws IOException {
+        CRC32 crc = new CRC32();
+        try (CheckedInputStream in = new CheckedInputStream( new FileInputStream( f ), crc )) {
+            byte[] buf = new byte[1 << 16];
+            while ( in.read( buf ) >= 0 ) {
+            }
+        }
+        return crc.getValue();
+    }
+
+
+    /** Forces the contents of a file to disk. */
+    static void sync( File f ) throws IOException {
+        try (FileChannel channel = FileChannel.open( f.toPath(), StandardOpenOption.WRITE )) {
+            channel.force( true );
+        }
+    }
+
+
+    /**
+     *  Forces a directory entry (such as a renamed file) to disk. Not all
+     *  platforms can open directories, in which case nothing is done.
+     */
+    static void syncDirectory( File d ) {
+        try (FileChannel channel = FileChannel.open( d.toPath(), StandardOpenOption.READ )) {
+            channel.force( true );
+        } catch ( IOException e ) {
+        }
+    }
+
+
+    /**
+     *  Deletes a directory and everything in it.
+     */
+    static void deleteDirectory( File d ) {
+        File[] fs = d.listFiles();
+        if ( fs != null ) {
+            for ( File f : fs ) {
+                if ( f.isDirectory() ) {
+                    deleteDirectory( f );
+                } else {
+                    f.delete();
+                }
+            }
+        }
+        d.delete();
+    }
+}
@@ -29,7 +29,7 @@ public class HITSRanker {
     /**
      * The inverted index
      */
-    Index index;
+    IndexReader index;
 
     /**
      * Mapping from the titles to internal document ids used in the links file
@@ -78,7 +78,7 @@ public class HITSRanker {
      *                       titles
      * @param index          The inverted index
      */
-    public HITSRanker(String linksFilename, String titlesFilename, Index index) {
+    public HITSRanker(String linksFilename, String titlesFilename, IndexReader index) {
         this.index = index;
         readDocs(linksFilename, titlesFilename);
     }
@@ -317,7 +317,7 @@ public class HITSRanker {
         String[] titles = new String[post_new.size()];
 
         for (int i = 0; i < post_new.size(); i++)
-            titles[i] = Index.docNames.get(post_new.get(i).docID);
+            titles[i] = index.getDocName(post_new.docID(i));
 
         iterate(titles);
 
@@ -327,9 +327,7 @@ public class HITSRanker {
             double score_hub = hubs.get(i);
             double score_auth = authorities.get(i);
             double score_final = hubs_coefficient * score_hub + score_auth * authorities_coefficient;
-            PostingsEntry entry = new PostingsEntry(post_new.get(i).docID);
-            entry.addScore(score_final);
-            result.insert(entry);
+            result.addDoc(post_new.docID(i), score_final);
         }
         return result;
     }
@@ -338,25 +336,27 @@ public class HITSRanker {
         
         Set<Integer> docIDs = new HashSet<Integer>();
         for (int i = 0; i < post.size(); i++) {
-            docIDs.add(post.get(i).docID);
+            docIDs.add(post.docID(i));
         }
 
-        print(Index.docIDs.size());
+        print(index.getNumberOfDocs());
 
         for (int i = 0; i < post.size(); i++) {
-            int internalID = post.get(i).docID;
-            String filename = getFileName(Index.docNames.get(internalID));
+            int internalID = post.docID(i);
+            String filename = getFileName(index.getDocName(internalID));
             if(outlinks.containsKey(filename)){
                 for(int externalID: outlinks.get(filename)){
-                    if(Index.docIDs.containsKey(externalID_to_name.get(externalID))) {
-                        docIDs.add(Index.docIDs.get(externalID_to_name.get(externalID)));
+                    int linkedID = index.getDocID(externalID_to_name.get(externalID));
+                    if(linkedID >= 0) {
+                        docIDs.add(linkedID);
                     }
                 }
             }
             if(inlinks.containsKey(filename)){
                 for(int externalID: inlinks.get(filename)){
-                    if(Index.docIDs.containsKey(externalID_to_name.get(externalID))) {
-                        docIDs.add(Index.docIDs.get(externalID_to_name.get(externalID)));
+                    int linkedID = index.getDocID(externalID_to_name.get(externalID));
+                    if(linkedID >= 0) {
+                        docIDs.add(linkedID);
                     }
                 }
             }
@@ -367,10 +367,10 @@ public class HITSRanker {
         print(docIDs.size());
 
         for (int docID : docIDs) {
-            String filename = getFileName(Index.docNames.get(docID));
+            String filename = getFileName(index.getDocName(docID));
             // print(docID);
             if (titleToId.containsKey(filename))
-                post_new.insert(new PostingsEntry(docID));
+                post_new.addDoc(docID);
         }
 
         return post_new;
@@ -21,6 +21,16 @@ public class HashedIndex implements Index {
     /** The index as a hashtable. */
     public HashMap<String,PostingsList> index = new HashMap<String,PostingsList>();
 
+    /** The largest normalized term frequency of each term, computed by cleanup(). */
+    private HashMap<String,Double> max_normalized_tf = new HashMap<String,Double>();
+
+    /** The quantized and Euclidean lengths of the documents, computed by cleanup(). */
+    private Norms norms = null;
+    private EuclideanNorms euclidean = null;
+
+    /** Incremented when indexing starts and when it is done. */
+    private volatile long version = 0;
+
 
     /**
      *  Inserts this token in the hashtable.
@@ -29,8 +39,32 @@ public class HashedIndex implements Index {
         //
         // YOUR CODE HERE
         //
+        if(norms != null){
+            // The statistics computed by cleanup() no longer hold
+            max_normalized_tf = new HashMap<String,Double>();
+            norms = null;
+            euclidean = null;
+            version++;
+        }
         if(!this.index.containsKey(token)) this.index.put(token, new PostingsList());
-        this.getPostings(token).insert(new PostingsEntry(docID, offset));
+        this.getPostings(token).insert(docID, offset);
+    }
+
+
+    /**
+     *  Appends the postings of a term to its list in the hashtable.
+     */
+    public void insertAll( String token, PostingsList postings ) {
+        if(norms != null){
+            // The statistics computed by cleanup() no longer hold
+            max_normalized_tf = new HashMap<String,Double>();
+            norms = null;
+            euclidean = null;
+            version++;
+        }
+        PostingsList list = this.index.get(token);
+        if(list == null) this.index.put(token, postings);
+        else list.addAll(postings);
     }
 
 
@@ -46,9 +80,55 @@ public class HashedIndex implements Index {
     }
 
     /**
-     *  No need for cleanup in a HashedIndex.
+     *  Returns the largest normalized term frequency of a term, as computed
+     *  when indexing was done.
+     */
+    public double getMaxNormalizedTf( String token ) {
+        Double max = max_normalized_tf.get( token );
+        return max != null ? max : Index.super.getMaxNormalizedTf( token );
+    }
+
+    public int getNorm( int docID ) {
+        return norms != null ? norms.getNorm( docID ) : Index.super.getNorm( docID );
+    }
+
+    public long getTotalLength() {
+        return norms != null ? norms.getTotalLength() : Index.super.getTotalLength();
+    }
+
+    public double getEuclideanLength( int docID ) {
+        return euclidean != null ? euclidean.getLength( docID ) : 0;
+    }
+
+    public long getVersion() {
+        return version;
+    }
+
+    public int getDocIDLimit() {
+        return euclidean != null ? euclidean.end() : Index.super.getDocIDLimit();
+    }
+
+    /**
+     *  Computes the largest normalized term frequency of every term and
+     *  the norms and Euclidean lengths of the documents, once indexing is
+     *  done.
      */
     public void cleanup() {
+        int end_doc = 0;
+        for ( int docID : docLengths.keySet() ) {
+            end_doc = Math.max( end_doc, docID + 1 );
+        }
+        EuclideanNorms lengths = new EuclideanNorms( 0, end_doc, docLengths.size() );
+        HashMap<String,Double> bounds = new HashMap<String,Double>();
+        for ( String token : index.keySet() ) {
+            bounds.put( token, Index.super.getMaxNormalizedTf( token ));
+            lengths.add( index.get( token ));
+        }
+        lengths.finish();
+        max_normalized_tf = bounds;
+        norms = new Norms( docLengths, 0, Integer.MAX_VALUE );
+        euclidean = lengths;
+        version++;
     }
 
     public int get_size(){
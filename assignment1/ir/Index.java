@@ -12,11 +12,16 @@ import java.util.Iterator;
 
 /**
  *  Defines some common data structures and methods that all types of
- *  index should implement.
+ *  index should implement. The methods reading the index are those of
+ *  IndexReader; the defaults here read the document maps.
  */
-public interface Index {
+public interface Index extends IndexReader {
 
-    /** Mapping from document identifiers to document names. */
+    /**
+     *  Mapping from document identifiers to document names. Filled by the
+     *  Indexer; persistent indexes move the documents they have written to
+     *  disk out of these maps, so read them through getDocName and friends.
+     */
     public HashMap<Integer,String> docNames = new HashMap<Integer,String>();
 
     public HashMap<String,Integer> docIDs = new HashMap<String,Integer>();
@@ -24,13 +29,22 @@ public interface Index {
     /** Mapping from document identifier to document length. */
     public HashMap<Integer,Integer> docLengths = new HashMap<Integer,Integer>();
 
-    public HashMap<Integer, HashMap<String, Integer>> tf_vectors = new HashMap<Integer, HashMap<String, Integer>>();
-
     /** Inserts a token into the index. */
     public void insert( String token, int docID, int offset );
 
-    /** Returns the postings for a given term. */
-    public PostingsList getPostings( String token );
+    /**
+     *  Inserts all occurrences of a term in a list of postings, whose
+     *  docIDs must be larger than those already in the index for the term.
+     *  The index may keep the list itself, so it must not be changed
+     *  afterwards.
+     */
+    public default void insertAll( String token, PostingsList postings ) {
+        for ( int i=0; i<postings.size(); i++ ) {
+            for ( int k=0; k<postings.tf(i); k++ ) {
+                insert( token, postings.docID(i), postings.position(i, k) );
+            }
+        }
+    }
 
     /** This method is called on exit. */
     public void cleanup();
@@ -38,5 +52,50 @@ public interface Index {
     public int get_size();
 
     public String getFileName( String path );
+
+    public default String getDocName( int docID ) {
+        return docNames.get( docID );
+    }
+
+    public default int getDocLength( int docID ) {
+        Integer length = docLengths.get( docID );
+        return length == null ? 0 : length;
+    }
+
+    public default long getTotalLength() {
+        long total = 0;
+        for ( int length : docLengths.values() ) {
+            total += length;
+        }
+        return total;
+    }
+
+    public default int getDocID( String fileName ) {
+        Integer docID = docIDs.get( fileName );
+        return docID == null ? -1 : docID;
+    }
+
+    /**
+     *  Returns the index as it is now, unchanged by later updates. A search
+     *  takes one snapshot and reads everything from it, so that the
+     *  statistics, norms and postings lists it combines all belong to the
+     *  same version of the index. Indexes that are never updated while
+     *  they are searched return themselves.
+     */
+    public default IndexReader snapshot() {
+        return this;
+    }
+
+    public default int getDocIDLimit() {
+        int limit = 0;
+        for ( int docID : docNames.keySet() ) {
+            limit = Math.max( limit, docID + 1 );
+        }
+        return limit;
+    }
+
+    public default int getNumberOfDocs() {
+        return docNames.size();
+    }
 }
 
@@ -0,0 +1,83 @@
+/*
+ *   This file is part of the computer assignment for the
+ *   Information Retrieval course at KTH.
+ */
+
+package ir;
+
+
+/**
+ *  The read side of an index: what searches, similarities and the
+ *  spelling corrector need. Indexes that are built implement Index, which
+ *  adds insertion; the snapshots searches read (see Index.snapshot) only
+ *  implement this.
+ */
+public interface IndexReader {
+
+    /** Returns the postings for a given term. */
+    public PostingsList getPostings( String token );
+
+    /** Returns a cursor over the postings for a given term, or null if the term is not in the index. */
+    public default PostingsCursor getCursor( String token ) {
+        PostingsList list = getPostings( token );
+        return list == null ? null : list.cursor();
+    }
+
+    /**
+     *  Returns the largest ratio of the term's frequency in a document to the
+     *  length of that document, over the documents containing the term, or 0
+     *  if the term is not in the index. Ranked retrieval multiplies it by
+     *  the idf to bound the score the term can add to a document.
+     */
+    public default double getMaxNormalizedTf( String token ) {
+        PostingsCursor cursor = getCursor( token );
+        double max = 0;
+        if ( cursor != null ) {
+            for ( int docID = cursor.nextDoc(); docID != PostingsCursor.NO_MORE_DOCS; docID = cursor.nextDoc() ) {
+                max = Math.max( max, (double)cursor.tf() / getDocLength( docID ));
+            }
+        }
+        return max;
+    }
+
+    /** Returns the name (path) of a document, or null if there is no such document. */
+    public String getDocName( int docID );
+
+    /** Returns the length (number of tokens) of a document, or 0 if there is no such document. */
+    public int getDocLength( int docID );
+
+    /** Returns the length of a document quantized as in its norm (see Norms), or 0 if there is no such document. */
+    public default int getNorm( int docID ) {
+        return Norms.decode( Norms.encode( getDocLength( docID )));
+    }
+
+    /** Returns the Euclidean length of a document's tf-idf vector, or 0 if there is no such document. */
+    public double getEuclideanLength( int docID );
+
+    /** Returns the sum of the lengths of all documents. */
+    public long getTotalLength();
+
+    /** Returns the number of occurrences of a term in all documents, or 0 if the term is not in the index. */
+    public default long getCollectionFrequency( String token ) {
+        PostingsList list = getPostings( token );
+        return list == null ? 0 : list.collectionFrequency();
+    }
+
+    /** Returns the docID of the document with the given file name, or -1 if there is none. */
+    public int getDocID( String fileName );
+
+    /**
+     *  Returns a number that grows whenever documents are added or removed,
+     *  or the statistics used for scoring change, so that results computed
+     *  from the index can be cached until then.
+     */
+    public default long getVersion() {
+        return 0;
+    }
+
+    /** Returns a number larger than every docID in the index. */
+    public int getDocIDLimit();
+
+    /** Returns the number of documents in the index. */
+    public int getNumberOfDocs();
+}
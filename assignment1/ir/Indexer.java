@@ -9,6 +9,7 @@ package ir;
 
 import java.io.*;
 import java.util.*;
+import java.util.concurrent.*;
 import java.nio.charset.*;
 
 
@@ -29,7 +30,11 @@ public class Indexer {
     /** The patterns matching non-standard words (e-mail addresses, etc.) */
     String patterns_file;
 
-    Set<String> terms = new HashSet<String>();
+    /** The number of threads tokenizing files. With 1, files are indexed on the calling thread. */
+    int num_threads = 1;
+
+    /** The number of files tokenized by one task in parallel indexing. */
+    static final int FILES_PER_TASK = 64;
 
     /* ----------------------------------------------- */
 
@@ -48,12 +53,36 @@ public class Indexer {
     }
 
 
+    /** Sets the document identifier given to the next indexed file. */
+    public void setNextDocID( int docID ) {
+        lastDocID = docID;
+    }
+
+
+    /** Returns the document identifier that the next indexed file will get. */
+    public int getNextDocID() {
+        return lastDocID;
+    }
+
+
+
+    /** Sets the number of threads used to tokenize files. */
+    public void setThreads( int num_threads ) {
+        this.num_threads = Math.max( 1, num_threads );
+    }
+
 
     /**
      *  Tokenizes and indexes the file @code{f}. If <code>f</code> is a directory,
      *  all its files and subdirectories are recursively processed.
      */
     public void processFiles( File f, boolean is_indexing ) {
+        if ( is_indexing && num_threads > 1 ) {
+            ArrayList<File> files = new ArrayList<File>();
+            listFiles( f, files );
+            indexFiles( files );
+            return;
+        }
         // do not try to index fs that cannot be read
         if (is_indexing) {
             if ( f.canRead() ) {
@@ -73,17 +102,14 @@ public class Indexer {
                         Reader reader = new InputStreamReader( new FileInputStream(f), StandardCharsets.UTF_8 );
                         Tokenizer tok = new Tokenizer( reader, true, false, true, patterns_file );
                         
-                        int offset = 0;
-                        while ( tok.hasMoreTokens() ) {
-                            String token = tok.nextToken();
-                            insertIntoIndex( docID, token, offset++ );
-
-                            terms.add(token);
+                        ArrayList<String> tokens = readTokens( tok );
+                        reader.close();
+                        for ( int offset=0; offset<tokens.size(); offset++ ) {
+                            insertIntoIndex( docID, tokens.get(offset), offset );
                         }
                         index.docNames.put( docID, f.getPath() );
-                        index.docLengths.put( docID, offset );
+                        index.docLengths.put( docID, tokens.size() );
                         index.docIDs.put( getFileName(f.getPath()), docID);
-                        reader.close();
                     } catch ( IOException e ) {
                         System.err.println( "Warning: IOException during indexing." );
                     }
@@ -92,93 +118,190 @@ public class Indexer {
         }
     }
 
-    public String getFileName(String path) {
-        String result = "";
-        StringTokenizer tok = new StringTokenizer(path, "\\/");
-        while (tok.hasMoreTokens()) {
-            result = tok.nextToken();
+    /* ----------------------------------------------- */
+
+
+    /**
+     *   The postings of a run of consecutive documents, built by one task
+     *   in parallel indexing. The terms are kept in the order they were
+     *   first seen, so that they reach the index (and the k-gram index)
+     *   in the same order as when indexing sequentially. A file that could
+     *   not be read has a length of -1, and, as when indexing sequentially,
+     *   its document is neither registered nor given any postings.
+     */
+    static class PartialIndex {
+        LinkedHashMap<String,PostingsList> index = new LinkedHashMap<String,PostingsList>();
+        List<File> files;
+        int firstDocID;
+        int[] docLengths;
+
+        PartialIndex( List<File> files, int firstDocID ) {
+            this.files = files;
+            this.firstDocID = firstDocID;
+            docLengths = new int[files.size()];
         }
-        return result;
     }
 
-    public void write_lengths_to_disk(){
-        Map<Integer, HashMap<String,Integer>> dict = new HashMap<Integer, HashMap<String,Integer>>();
-        for (String term: terms){
-            PostingsList list = this.index.getPostings(term);
-            for(int i=0;i<list.size();i++){
-                int docID = list.get(i).docID;
-                if (!dict.containsKey(docID)) {
-                    HashMap<String,Integer> map = new HashMap<>();
-                    map.put(term, 1);
-                    dict.put(docID,map);
+
+    /**
+     *  Indexes a list of files (but not directories), numbering them in
+     *  list order.
+     */
+    public void indexFiles( List<File> files ) {
+        if ( num_threads > 1 ) {
+            indexFilesInParallel( files );
+        } else {
+            for ( File f : files ) {
+                processFiles( f, true );
+            }
+        }
+    }
+
+
+    /**
+     *  Indexes a list of files using several threads. The files are numbered
+     *  in list order, so docIDs do not depend on scheduling. Runs of
+     *  consecutive files are tokenized by a pool of workers (each reusing
+     *  one Tokenizer) into partial indexes, which are added to the index
+     *  in docID order on the calling thread.
+     *
+     *  @throws RuntimeException if a worker fails or the calling thread is
+     *          interrupted. The tasks still pending are cancelled, and the
+     *          index is left incomplete, so it must not be committed.
+     */
+    private void indexFilesInParallel( List<File> files ) {
+        int firstDocID = lastDocID;
+        lastDocID += files.size();
+
+        ThreadLocal<Tokenizer> tokenizers = ThreadLocal.withInitial(
+            () -> new Tokenizer( null, true, false, true, patterns_file ));
+        ExecutorService pool = Executors.newFixedThreadPool( num_threads );
+        ArrayDeque<Future<PartialIndex>> pending = new ArrayDeque<Future<PartialIndex>>();
+        int next = 0;
+        try {
+            while ( next < files.size() || !pending.isEmpty() ) {
+                // Keep a few tasks per thread in flight, so that finished
+                // partial indexes do not pile up in memory
+                while ( next < files.size() && pending.size() < 2*num_threads ) {
+                    PartialIndex partial = new PartialIndex( files.subList( next, Math.min( files.size(), next + FILES_PER_TASK )), firstDocID + next );
+                    pending.add( pool.submit( () -> tokenizeFiles( partial, tokenizers.get() )));
+                    next += partial.files.size();
                 }
-                else {
-                    if(!dict.get(docID).containsKey(term)) dict.get(docID).put(term, 1);
-                    else{
-                        int val = dict.get(docID).get(term);
-                        dict.get(docID).put(term, val+1);
+                addPartialIndex( pending.poll().get() );
+            }
+        } catch ( InterruptedException e ) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException( "Indexing was interrupted", e );
+        } catch ( ExecutionException e ) {
+            throw new RuntimeException( "Indexing failed", e.getCause() );
+        } finally {
+            for ( Future<PartialIndex> task : pending ) {
+                task.cancel( true );
+            }
+            pool.shutdown();
+        }
+    }
+
+
+    /**
+     *  Lists the readable files under @code{f}, in the order in which
+     *  {@link #processFiles} would index them.
+     */
+    public static void listFiles( File f, List<File> files ) {
+        if ( f.canRead() ) {
+            if ( f.isDirectory() ) {
+                String[] fs = f.list();
+                // an IO error could occur
+                if ( fs != null ) {
+                    for ( int i=0; i<fs.length; i++ ) {
+                        listFiles( new File( f, fs[i] ), files );
                     }
                 }
+            } else {
+                files.add( f );
             }
         }
+    }
 
-        Map<Integer,Double> map = new HashMap<Integer,Double>();
-
-        int N = this.index.docLengths.size();
-        
-        for(int docID: dict.keySet()) {
-            double temp = 0;
 
-            for(String term: dict.get(docID).keySet()){
+    /**
+     *  Tokenizes the files of a partial index into its postings. Runs on a
+     *  worker thread, and touches nothing but the partial index.
+     */
+    private PartialIndex tokenizeFiles( PartialIndex partial, Tokenizer tok ) {
+        for ( int i=0; i<partial.files.size(); i++ ) {
+            int docID = partial.firstDocID + i;
+            try {
+                Reader reader = new InputStreamReader( new FileInputStream( partial.files.get(i) ), StandardCharsets.UTF_8 );
+                tok.reset( reader );
+                ArrayList<String> tokens = readTokens( tok );
+                reader.close();
+                for ( int offset=0; offset<tokens.size(); offset++ ) {
+                    String token = tokens.get( offset );
+                    PostingsList list = partial.index.get( token );
+                    if ( list == null ) {
+                        list = new PostingsList();
+                        partial.index.put( token, list );
+                    }
+                    list.insert( docID, offset );
+                }
+                partial.docLengths[i] = tokens.size();
+            } catch ( IOException e ) {
+                partial.docLengths[i] = -1;
+                System.err.println( "Warning: IOException during indexing." );
+            }
+        }
+        return partial;
+    }
 
-                int tf_dt = dict.get(docID).get(term);
 
-                int df_t = this.index.getPostings(term).get_filtered_list().size();
-                double idf_t = Math.log(N / df_t);
+    /**
+     *  Reads all tokens of a document. The caller indexes them only once
+     *  this returns, so that a file failing halfway leaves no postings for
+     *  a document that is never registered.
+     */
+    private static ArrayList<String> readTokens( Tokenizer tok ) throws IOException {
+        ArrayList<String> tokens = new ArrayList<String>();
+        while ( tok.hasMoreTokens() ) {
+            tokens.add( tok.nextToken() );
+        }
+        return tokens;
+    }
 
-                double tfidf_term = tf_dt * idf_t;
 
-                temp += Math.pow(tfidf_term, 2);
+    /**
+     *  Adds a partial index to the index. Partial indexes must be added in
+     *  docID order, so that every postings list stays sorted. Each postings
+     *  list of the partial index is appended whole.
+     */
+    private void addPartialIndex( PartialIndex partial ) {
+        for ( Map.Entry<String,PostingsList> e : partial.index.entrySet() ) {
+            String token = e.getKey();
+            index.insertAll( token, e.getValue() );
+            if ( kgIndex != null )
+                kgIndex.insert( token );
+        }
+        for ( int i=0; i<partial.files.size(); i++ ) {
+            int docID = partial.firstDocID + i;
+            if ( docID%1000 == 0 ) System.err.println( "Indexed " + docID + " files" );
+            if ( partial.docLengths[i] < 0 ) {
+                continue;
             }
-
-            temp = Math.sqrt(temp);
-            map.put(docID,temp);
+            String path = partial.files.get(i).getPath();
+            index.docNames.put( docID, path );
+            index.docLengths.put( docID, partial.docLengths[i] );
+            index.docIDs.put( getFileName(path), docID );
         }
+    }
 
-        // print(map);
-
-        File file = new File("lengths.txt");
-        BufferedWriter bf = null; 
-        try { 
-  
-            // create new BufferedWriter for the output file 
-            bf = new BufferedWriter(new FileWriter(file)); 
-  
-            // iterate map entries 
-            Iterator it = map.entrySet().iterator();
-            while ( it.hasNext() ) { 
-
-                Map.Entry entry = (Map.Entry)it.next();
-
-                // put key and value separated by a colon 
-                bf.write(entry.getKey() + ":" + entry.getValue());
-                // new line 
-                bf.newLine(); 
-            } 
-  
-            bf.flush(); 
-        } 
-        catch (IOException e) { 
-            e.printStackTrace(); 
-        } 
-        finally { 
-            try { 
-                bf.close(); 
-            } 
-            catch (Exception e) { 
-            } 
-        } 
 
+    public String getFileName(String path) {
+        String result = "";
+        StringTokenizer tok = new StringTokenizer(path, "\\/");
+        while (tok.hasMoreTokens()) {
+            result = tok.nextToken();
+        }
+        return result;
     }
 
     /* ----------------------------------------------- */
@@ -0,0 +1,121 @@
+/*
+ *   This file is part of the computer assignment for the
+ *   Information Retrieval course at KTH.
+ */
+
+package ir;
+
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.function.IntPredicate;
+
+
+/**
+ *   Intersects postings lists through their cursors, rarest list first.
+ *
+ *   The shortest list leads: each of its documents is looked up in the
+ *   other lists in order of increasing document frequency, with advance(),
+ *   which skips blocks and binary-searches (in memory) or decodes (on disk)
+ *   within a block. As soon as a list has no such document, the lead
+ *   advances past the document that list has instead. The docIDs found
+ *   are written to a buffer that is allocated once and reused, so an
+ *   intersection creates no objects per document.
+ */
+public class Intersection {
+
+    /** The docIDs of the last intersection, in increasing order. */
+    private int[] buffer = new int[1024];
+
+    /** The number of docIDs in the buffer. */
+    private int size = 0;
+
+    /** The number of postings read during the last intersection. */
+    private long touched = 0;
+
+
+    /**
+     *  Intersects the lists of the cursors, which must be positioned before
+     *  their first documents, and returns the number of documents found.
+     */
+    public int intersect( PostingsCursor[] cursors ) {
+        return intersect( cursors, null );
+    }
+
+
+    /**
+     *  Intersects the lists of the cursors, and keeps only the documents
+     *  accepted by <code>accept</code>, which is called with all cursors
+     *  positioned on the document. Returns the number of documents found.
+     */
+    public int intersect( PostingsCursor[] cursors, IntPredicate accept ) {
+        return intersect( cursors, accept, 0, PostingsCursor.NO_MORE_DOCS );
+    }
+
+
+    /**
+     *  Intersects the lists of the cursors within the docIDs from
+     *  <code>from</code> up to (but not including) <code>to</code>. The
+     *  lead skips to the start of the range with advance().
+     */
+    public int intersect( PostingsCursor[] cursors, IntPredicate accept, int from, int to ) {
+        size = 0;
+        touched = 0;
+        if ( cursors.length == 0 ) {
+            return 0;
+        }
+        PostingsCursor[] lists = cursors.clone();
+        Arrays.sort( lists, Comparator.comparingInt( PostingsCursor::size ));
+        if ( buffer.length < lists[0].size() ) {
+            buffer = new int[Math.max( lists[0].size(), 2*buffer.length )];
+        }
+
+        PostingsCursor lead = lists[0];
+        int doc = from > 0 ? lead.advance( from ) : lead.nextDoc();
+        candidates:
+        while ( doc < to ) {
+            for ( int i=1; i<lists.length; i++ ) {
+                int found = lists[i].docID();
+                if ( found < doc ) {
+                    found = lists[i].advance( doc );
+                }
+                if ( found > doc ) {
+                    if ( found >= to ) {
+                        break candidates;
+                    }
+                    doc = lead.advance( found );
+                    continue candidates;
+                }
+            }
+            if ( accept == null || accept.test( doc )) {
+                buffer[size++] = doc;
+            }
+            doc = lead.nextDoc();
+        }
+
+        for ( PostingsCursor cursor : lists ) {
+            touched += cursor.touched();
+        }
+        return size;
+    }
+
+
+    /** Returns the number of documents found by the last intersection. */
+    public int size() {
+        return size;
+    }
+
+
+    /** Returns the ith docID found by the last intersection. */
+    public int docID( int i ) {
+        return buffer[i];
+    }
+
+
+    /**
+     *  Returns the number of postings (documents and skip entries) read
+     *  from the lists during the last intersection.
+     */
+    public long postingsTouched() {
+        return touched;
+    }
+}
@@ -77,10 +77,13 @@ public class KGramIndex {
         return result;
     }
 
-    /** Inserts all k-grams from a token into the index. */
+    /**
+     * Inserts all k-grams from a token into the index. Tokens may be
+     * inserted while other threads search the index.
+     */
 
     List<Integer> ids = new ArrayList<Integer>();
-    public void insert(String token) {
+    public synchronized void insert(String token) {
         //
         // YOUR CODE HERE
         //
@@ -107,23 +110,26 @@ public class KGramIndex {
         }
     }
 
-    /** Get postings for the given k-gram */
-    public List<KGramPostingsEntry> getPostings(String kgram) {
+    /**
+     * Get postings for the given k-gram. The list is a copy, since the
+     * postings may grow while the caller reads them.
+     */
+    public synchronized List<KGramPostingsEntry> getPostings(String kgram) {
         //
         // YOUR CODE HERE
         //
         if (index.containsKey(kgram))
-            return index.get(kgram);
+            return new ArrayList<KGramPostingsEntry>(index.get(kgram));
         return null;
     }
 
     /** Get id of a term */
-    public Integer getIDByTerm(String term) {
+    public synchronized Integer getIDByTerm(String term) {
         return term2id.get(term);
     }
 
     /** Get a term by the given id */
-    public String getTermByID(Integer id) {
+    public synchronized String getTermByID(Integer id) {
         return id2term.get(id);
     }
 
@@ -146,6 +152,10 @@ public class KGramIndex {
                 postings = intersect(postings, getPostings(kgram));
             }
         }
+        // No word has the k-grams of the term (or the term has no k-gram
+        // without a wildcard)
+        if (postings == null)
+            return query;
 
         String regexToken = term.replace("*", ".*");
         for (int i = 0; i < postings.size(); i++) {
@@ -0,0 +1,87 @@
+/*
+ *   This file is part of the computer assignment for the
+ *   Information Retrieval course at KTH.
+ */
+
+package ir;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+
+/**
+ *   A read-only memory mapping of a file.
+ *
+ *   A single MappedByteBuffer can address at most 2 GB, so larger files
+ *   are mapped as a sequence of chunks of CHUNK_SIZE bytes each.
+ */
+public class MappedFile {
+
+    /** The number of bits addressing a byte within a chunk. */
+    static final int CHUNK_BITS = 30;
+
+    /** The size of each mapped chunk (1 GB). */
+    static final long CHUNK_SIZE = 1L << CHUNK_BITS;
+
+    /** The mapped chunks, in file order. */
+    private MappedByteBuffer[] chunks;
+
+    /** The length of the file at the time it was mapped. */
+    private long length;
+
+
+    /**
+     *  Maps the current contents of <code>file</code>. Data appended to the
+     *  file later is not visible through this mapping.
+     */
+    public MappedFile( RandomAccessFile file ) throws IOException {
+        FileChannel channel = file.getChannel();
+        length = channel.size();
+        int n = (int)((length + CHUNK_SIZE - 1) >>> CHUNK_BITS);
+        chunks = new MappedByteBuffer[n];
+        for ( int i=0; i<n; i++ ) {
+            long start = (long)i << CHUNK_BITS;
+            chunks[i] = channel.map( FileChannel.MapMode.READ_ONLY, start, Math.min( CHUNK_SIZE, length-start ));
+        }
+    }
+
+
+    /** Returns the number of mapped bytes. */
+    public long length() {
+        return length;
+    }
+
+
+    /**
+     *  Returns a buffer holding the <code>size</code> bytes starting at
+     *  <code>ptr</code>, positioned at its first byte. The buffer is a view of
+     *  the mapping unless the range crosses a chunk boundary, in which case
+     *  the bytes are copied.
+     */
+    public ByteBuffer slice( long ptr, int size ) {
+        if ( ptr < 0 || ptr + size > length ) {
+            throw new IndexOutOfBoundsException( "Range " + ptr + "+" + size + " outside mapped file of " + length + " bytes" );
+        }
+        int chunk = (int)(ptr >>> CHUNK_BITS);
+        int offset = (int)(ptr & (CHUNK_SIZE - 1));
+        if ( offset + size <= chunks[chunk].capacity() ) {
+            ByteBuffer view = chunks[chunk].duplicate();
+            view.position( offset ).limit( offset + size );
+            return view.slice();
+        }
+        byte[] data = new byte[size];
+        int copied = 0;
+        while ( copied < size ) {
+            ByteBuffer view = chunks[chunk].duplicate();
+            view.position( offset );
+            int n = Math.min( size - copied, view.remaining() );
+            view.get( data, copied, n );
+            copied += n;
+            chunk++;
+            offset = 0;
+        }
+        return ByteBuffer.wrap( data );
+    }
+}
@@ -0,0 +1,145 @@
+/*
+ *   This file is part of the computer assignment for the
+ *   Information Retrieval course at KTH.
+ */
+
+package ir;
+
+import java.io.*;
+import java.util.Map;
+
+
+/**
+ *   Document lengths quantized to one byte per document, as used by the
+ *   length normalization of BM25 and query likelihood.
+ *
+ *   Lengths below 24 are stored exactly. Larger ones keep their four most
+ *   significant bits, so they are rounded down by less than one eighth.
+ *   The norms file of a persistent index covers the n docIDs from
+ *   first_doc up to first_doc+n, and consists of (all numbers big-endian):
+ *
+ *     int  first_doc, n    the range of docIDs
+ *     long total_length    the sum of the (exact) lengths of the documents
+ *     byte norm[n]         the quantized lengths
+ */
+public class Norms {
+
+    /** The number of lengths stored exactly. */
+    static final int EXACT = 24;
+
+    /** The length each byte stands for. */
+    private static final int[] DECODE = new int[256];
+
+    static {
+        for ( int b=0; b<256; b++ ) {
+            DECODE[b] = b < EXACT ? b : EXACT + int4ToInt( b - EXACT );
+        }
+    }
+
+    /** The lowest docID covered. */
+    private int first_doc;
+
+    /** The quantized lengths. */
+    private byte[] norms;
+
+    /** The sum of the lengths of the documents. */
+    private long total_length;
+
+
+    /**
+     *  Quantizes the lengths of the documents with docIDs from
+     *  <code>first_doc</code> up to (but not including) <code>end_doc</code>.
+     */
+    public Norms( Map<Integer,Integer> lengths, int first_doc, int end_doc ) {
+        this.first_doc = first_doc;
+        int last = first_doc - 1;
+        for ( int docID : lengths.keySet() ) {
+            if ( docID >= first_doc && docID < end_doc ) {
+                last = Math.max( last, docID );
+            }
+        }
+        norms = new byte[last - first_doc + 1];
+        for ( Map.Entry<Integer,Integer> e : lengths.entrySet() ) {
+            int docID = e.getKey();
+            if ( docID >= first_doc && docID < end_doc ) {
+                norms[docID - first_doc] = encode( e.getValue() );
+                total_length += e.getValue();
+            }
+        }
+    }
+
+
+    /**
+     *  Reads a norms file.
+     */
+    public Norms( String fname ) throws IOException {
+        try (DataInputStream in = new DataInputStream( new BufferedInputStream( new FileInputStream( fname )))) {
+            first_doc = in.readInt();
+            norms = new byte[in.readInt()];
+            total_length = in.readLong();
+            in.readFully( norms );
+        }
+    }
+
+
+    /**
+     *  Writes the norms to a file.
+     */
+    public void write( String fname ) throws IOException {
+        try (DataOutputStream out = new DataOutputStream( new BufferedOutputStream( new FileOutputStream( fname )))) {
+            out.writeInt( first_doc );
+            out.writeInt( norms.length );
+            out.writeLong( total_length );
+            out.write( norms );
+        }
+    }
+
+
+    /** Returns the quantized length of a document, or 0 if it is not covered. */
+    public int getNorm( int docID ) {
+        int i = docID - first_doc;
+        return i >= 0 && i < norms.length ? DECODE[norms[i] & 0xff] : 0;
+    }
+
+
+    /** Returns the sum of the lengths of the documents. */
+    public long getTotalLength() {
+        return total_length;
+    }
+
+
+    /**
+     *  Returns the byte of a length: the largest one that does not stand
+     *  for a larger length.
+     */
+    public static byte encode( int length ) {
+        if ( length < EXACT ) {
+            return (byte)Math.max( length, 0 );
+        }
+        return (byte)(EXACT + intToInt4( length - EXACT ));
+    }
+
+
+    /** Returns the length a byte stands for. */
+    public static int decode( byte b ) {
+        return DECODE[b & 0xff];
+    }
+
+
+    /** Keeps the four most significant bits of a number, and the position of the highest one. */
+    private static int intToInt4( int i ) {
+        int numBits = 32 - Integer.numberOfLeadingZeros( i );
+        if ( numBits < 4 ) {
+            return i;
+        }
+        int shift = numBits - 4;
+        return ((i >>> shift) & 0x07) | ((shift + 1) << 3);
+    }
+
+
+    private static int int4ToInt( int i ) {
+        int bits = i & 0x07;
+        int shift = (i >>> 3) - 1;
+        return shift == -1 ? bits : (bits | 0x08) << shift;
+    }
+}
@@ -9,6 +9,9 @@ package ir;
 
 import java.io.*;
 import java.util.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
 import java.nio.charset.*;
 
 
@@ -21,7 +24,13 @@ import java.nio.charset.*;
  *
  *   When words are read and indexed, they are first put in an ordinary,
  *   main-memory HashMap. When all words are read, the index is committed
- *   to disk.
+ *   to disk. If the HashMap outgrows the memory budget before that, it is
+ *   written to disk as a sorted block and emptied (single-pass in-memory
+ *   indexing), and the blocks are merged when the index is committed.
+ *
+ *   Searches read the committed index through an immutable Snapshot, with
+ *   positional reads only, so any number of them can run at the same time
+ *   without locking. A commit publishes a new snapshot atomically.
  */
 public class PersistentHashedIndex implements Index {
 
@@ -40,23 +49,125 @@ public class PersistentHashedIndex implements Index {
     /** The doc info file name */
     public static final String DOCINFO_FNAME = "docInfo";
 
-    /** The dictionary hash table on disk can fit this many entries. */
-    public static final long TABLESIZE = 611953L;
+    /** The norms file name */
+    public static final String NORMS_FNAME = "norms";
+
+    /** The doc norm (Euclidean length) file name */
+    public static final String DOCNORMS_FNAME = "docNorms";
+
+    /** Prefix of the names of the intermediate block files */
+    public static final String BLOCK_FNAME = "block";
+
+    /** 
+     *  The smallest number of slots in the dictionary hash table. The actual
+     *  table size is derived from the number of terms when the index is
+     *  written, and from the length of the dictionary file when it is read.
+     */
+    public static final long MIN_TABLESIZE = 1021L;
+
+    /** The default fraction of dictionary slots that are occupied. */
+    public static final double DEFAULT_LOAD_FACTOR = 0.5;
+
+    /** How many terms are written between two progress reports. */
+    public static final int PROGRESS_INTERVAL = 50000;
+
+    /** Estimated heap usage of one posting in the main-memory hash map. */
+    static final int POSTING_BYTES = 64;
+
+    /** Estimated heap usage of one term (excluding its postings) in the main-memory hash map. */
+    static final int TERM_BYTES = 256;
+
+    /**
+     *  Size in bytes of one dictionary record: data pointer (8), postings
+     *  byte length (4), document frequency (4), term fingerprint (8),
+     *  pointer to the term in the terms file (8), collection frequency (8)
+     *  and largest normalized term frequency (4).
+     */
+    public static final int ENTRY_SIZE = 44;
+
+    /** The directory where the generations of this index are stored. */
+    String dir = INDEXDIR;
+
+    /** The committed index that searches read from, empty until something has been committed. */
+    volatile Snapshot snapshot = new Snapshot();
+
+    /** 
+     *  The docIDs of the documents that belong to this index are at least
+     *  <code>first_doc</code> and below <code>end_doc</code>. Only their names
+     *  and lengths are written to the doc info file.
+     */
+    int first_doc = 0, end_doc = Integer.MAX_VALUE;
+
+    /** Incremented whenever a generation is opened. */
+    volatile long version = 0;
+
+    /** The cache of decoded postings lists, or null if lists are read from disk every time. */
+    PostingsCache postings_cache = null;
+
+    /** The number of most frequent terms whose lists are pinned in the cache. */
+    int pinned_terms = 0;
+
+    /** The Euclidean lengths being computed while the index is written. */
+    private EuclideanNorms writing_norms;
+
+    /** 
+     *  The maps the names and lengths of the documents are taken from when
+     *  the index is written. Normally these are the shared maps filled by
+     *  the Indexer.
+     */
+    Map<Integer,String> doc_names = docNames;
+    Map<Integer,Integer> doc_lengths = docLengths;
 
-    /** The dictionary hash table is stored in this file. */
+    /** The dictionary hash table is written to this file. */
     RandomAccessFile dictionaryFile;
 
-    /** The data (the PostingsLists) are stored in this file. */
+    /** The data (the PostingsLists) are written to this file. */
     RandomAccessFile dataFile;
 
+    /** 
+     *  The terms are written to this file, each as its length in bytes
+     *  followed by its UTF-8 encoding.
+     */
+    RandomAccessFile termsFile;
+
+    /** If true, lookups are served from memory mappings of the index files. */
+    boolean memory_mapped = false;
+
     /** Pointer to the first free memory cell in the data file. */
     long free = 0L;
 
+    /** Pointer to the first free memory cell in the terms file. */
+    long free_term = 0L;
+
+    /** The encoding of the postings lists in the data file. */
+    PostingsCodec codec = new VByteCodec();
+
     /** The cache as a main-memory hash map. */
     HashMap<String,PostingsList> index = new HashMap<String,PostingsList>();
 
-    private ArrayList<Long> dict_entries_taken = new ArrayList<Long>();
-    private int max_key_size = 20; // 100
+    /** The main-memory hash map is flushed to a block when it is estimated to use more bytes than this. */
+    long memory_budget = Runtime.getRuntime().maxMemory() / 4;
+
+    /** Estimated number of bytes used by the main-memory hash map. */
+    long memory_used = 0L;
+
+    /** The number of blocks flushed to disk so far. */
+    int block_count = 0;
+
+    /** The number of terms in the index on disk, once it has been written. */
+    int term_count = 0;
+
+    /** Buffered streams appending to the data and terms files while the index is written. */
+    private DataOutputStream dataOut, termsOut;
+
+    /** The dictionary hash table being written has this many slots. */
+    long table_size = 0L;
+
+    /** The fraction of dictionary slots to fill when the index is written. */
+    double load_factor = DEFAULT_LOAD_FACTOR;
+
+    /** Reusable buffer for writing one dictionary record. */
+    private ByteBuffer entryBuffer = ByteBuffer.allocate( ENTRY_SIZE );
 
     // ===================================================================
 
@@ -64,28 +175,61 @@ public class PersistentHashedIndex implements Index {
      *   A helper class representing one entry in the dictionary hashtable.
      */ 
     public class Entry {
-        //
-        //  YOUR CODE HERE
-        //
         long ptr;
         int size;
-        int sum;
-        public Entry(long ptr,int sum,int size){
-        // public Entry(long ptr,int size){
+        int df;
+        long fingerprint;
+        long term_ptr;
+
+        /** The number of occurrences of the term in all documents. */
+        long cf;
+
+        /** The largest normalized term frequency (tf over document length) of the term. */
+        float max_tf;
+
+        public Entry(long ptr,int size,int df,long fingerprint,long term_ptr){
             this.ptr = ptr;
             this.size = size;
-            this.sum = sum;
+            this.df = df;
+            this.fingerprint = fingerprint;
+            this.term_ptr = term_ptr;
+        }
+
+        /**
+         *  Reads an entry from the current position of <code>buf</code>.
+         */
+        Entry( ByteBuffer buf ) {
+            this.ptr = buf.getLong();
+            this.size = buf.getInt();
+            this.df = buf.getInt();
+            this.fingerprint = buf.getLong();
+            this.term_ptr = buf.getLong();
+            this.cf = buf.getLong();
+            this.max_tf = buf.getFloat();
+        }
+
+        /**
+         *  Writes this entry as a fixed-size binary record at the current
+         *  position of <code>buf</code>.
+         */
+        void write( ByteBuffer buf ) {
+            buf.putLong( ptr );
+            buf.putInt( size );
+            buf.putInt( df );
+            buf.putLong( fingerprint );
+            buf.putLong( term_ptr );
+            buf.putLong( cf );
+            buf.putFloat( max_tf );
+        }
+
+        /** Empty slots in the hash table are all zeros, so they have size 0. */
+        public boolean is_empty(){
+            return this.size == 0;
         }
 
         @Override
         public String toString() {
-            String temp = String.valueOf(this.get_ptr()) + "," + String.valueOf(this.get_sum()) + "," + String.valueOf(this.get_size());
-            // String temp = String.valueOf(this.get_ptr()) + "," + String.valueOf(this.get_size());
-            if(temp.getBytes().length<max_key_size) {
-                temp+=",";
-                while(temp.length()<max_key_size) temp+='n';
-            }
-            return temp;
+            return String.valueOf(this.ptr) + "," + String.valueOf(this.size) + "," + String.valueOf(this.df) + "," + Long.toHexString(this.fingerprint) + "," + String.valueOf(this.term_ptr) + "," + String.valueOf(this.cf) + "," + String.valueOf(this.max_tf);
         }
 
         public long get_ptr(){
@@ -96,8 +240,298 @@ public class PersistentHashedIndex implements Index {
             return this.size;
         }
 
-        public int get_sum(){
-            return this.sum;
+        public int get_df(){
+            return this.df;
+        }
+
+        public long get_fingerprint(){
+            return this.fingerprint;
+        }
+
+        public long get_term_ptr(){
+            return this.term_ptr;
+        }
+    }
+
+    // ==================================================================
+
+    /**
+     *   The files of one committed generation, opened for reading.
+     *
+     *   A snapshot does not change once it is published. Its files are only
+     *   read at explicit positions (FileChannel.read at an offset, or slices
+     *   of the mappings), never by seeking, so one snapshot can be read by
+     *   any number of searches at the same time without locking. A search
+     *   takes the current snapshot once (see snapshot()), and keeps reading
+     *   the same generation even if a newer one is published meanwhile.
+     *
+     *   The files of a replaced snapshot are not closed when it is replaced,
+     *   since searches may still be reading them; the garbage collector
+     *   closes them once it is unreachable. Its generation stays on disk
+     *   until the next commit (see Generation.prune).
+     */
+    class Snapshot implements IndexReader {
+        /** The generation read from, or null if nothing has been committed. */
+        final Generation generation;
+
+        /** The dictionary, data and terms files. */
+        final FileChannel dictionary, data, terms;
+
+        /** Memory mappings of the dictionary, data and terms files, or null if not mapped. */
+        final MappedFile dictionaryMap, dataMap, termsMap;
+
+        /** The dictionary hash table has this many slots. */
+        final long table_size;
+
+        /** The names and lengths of the documents. */
+        final DocInfo docInfo;
+
+        /** The quantized lengths of the documents. */
+        final Norms norms;
+
+        /** The Euclidean lengths of the documents. */
+        final EuclideanNorms euclidean;
+
+        /** The prefix of the postings cache keys of the lists of this generation. */
+        final String cache_prefix;
+
+        /** The version of the index when this snapshot was published. */
+        long version = 0;
+
+
+        /**
+         *  Creates the empty snapshot of an index that has not been committed.
+         */
+        Snapshot() {
+            generation = null;
+            dictionary = data = terms = null;
+            dictionaryMap = dataMap = termsMap = null;
+            table_size = 0;
+            docInfo = null;
+            norms = null;
+            euclidean = null;
+            cache_prefix = null;
+        }
+
+
+        /**
+         *  Opens the files of a committed generation, and maps them into
+         *  memory if memory mapping is enabled.
+         */
+        Snapshot( Generation g ) throws IOException {
+            generation = g;
+            RandomAccessFile dictionaryFile = new RandomAccessFile( g.file( DICTIONARY_FNAME ), "r" );
+            RandomAccessFile dataFile = new RandomAccessFile( g.file( DATA_FNAME ), "r" );
+            RandomAccessFile termsFile = new RandomAccessFile( g.file( TERMS_FNAME ), "r" );
+            dictionary = dictionaryFile.getChannel();
+            data = dataFile.getChannel();
+            terms = termsFile.getChannel();
+            // The table size is recovered from the file length
+            table_size = dictionary.size() / ENTRY_SIZE;
+            if ( memory_mapped ) {
+                dictionaryMap = new MappedFile( dictionaryFile );
+                dataMap = new MappedFile( dataFile );
+                termsMap = new MappedFile( termsFile );
+            } else {
+                dictionaryMap = null;
+                dataMap = null;
+                termsMap = null;
+            }
+            docInfo = new DocInfo( g.file( DOCINFO_FNAME ));
+            norms = new Norms( g.file( NORMS_FNAME ));
+            euclidean = new EuclideanNorms( g.file( DOCNORMS_FNAME ));
+            cache_prefix = g.dir.getPath() + File.separator;
+        }
+
+
+        /**
+         *  Reads data from the data file
+         *
+         *  @return A buffer positioned at the first of the <code>size</code> bytes read.
+         */ 
+        ByteBuffer readData( long ptr, int size ) {
+            if ( dataMap != null ) {
+                return dataMap.slice( ptr, size );
+            }
+            try {
+                return read( data, ptr, size );
+            } catch ( IOException e ) {
+                e.printStackTrace();
+                return null;
+            }
+        }
+
+
+        /**
+         *  Reads a term from the terms file.
+         *
+         *  @return A buffer holding the UTF-8 encoding of the term.
+         */
+        ByteBuffer readTerm( long ptr ) {
+            if ( termsMap != null ) {
+                int size = termsMap.slice( ptr, 4 ).getInt();
+                return termsMap.slice( ptr + 4, size );
+            }
+            try {
+                int size = read( terms, ptr, 4 ).getInt();
+                return read( terms, ptr + 4, size );
+            } catch ( IOException e ) {
+                e.printStackTrace();
+                return null;
+            }
+        }
+
+
+        /**
+         *  Reads an entry from the dictionary file.
+         *
+         *  @param ptr The place in the dictionary file where to start reading.
+         *  @return The entry, or null if <code>ptr</code> lies beyond the end of the table.
+         */
+        Entry readEntry( long ptr ) {
+            if ( ptr + ENTRY_SIZE > table_size * ENTRY_SIZE ) {
+                return null;
+            }
+            if ( dictionaryMap != null ) {
+                return new Entry( dictionaryMap.slice( ptr, ENTRY_SIZE ));
+            }
+            try {
+                return new Entry( read( dictionary, ptr, ENTRY_SIZE ));
+            } catch ( IOException e ) {
+                e.printStackTrace();
+                return null;
+            }
+        }
+
+
+        /**
+         *  Reads <code>size</code> bytes at <code>ptr</code> of a file into
+         *  a new buffer. The position of the file is neither used nor changed.
+         */
+        private ByteBuffer read( FileChannel channel, long ptr, int size ) throws IOException {
+            ByteBuffer buffer = ByteBuffer.allocate( size );
+            while ( buffer.hasRemaining() ) {
+                if ( channel.read( buffer, ptr + buffer.position() ) < 0 ) {
+                    throw new EOFException( "Index file ends before " + (ptr + size) );
+                }
+            }
+            buffer.flip();
+            return buffer;
+        }
+
+
+        /**
+         *  Returns the dictionary entry of a term, or null if the term is not
+         *  in the index.
+         *
+         *  A slot is taken to hold the term when its fingerprint matches; the
+         *  term itself is only read from the terms file to confirm such a match.
+         */
+        Entry findEntry( String token ) {
+            if(table_size==0) return null;
+            long fingerprint = fingerprint(token);
+            long target_bucket = get_bucket(fingerprint, table_size);
+            ByteBuffer term = null;
+
+            for(long probes=0; probes<table_size; probes++){
+                Entry entry = readEntry(target_bucket);
+                if(entry==null || entry.is_empty()) return null;
+
+                if(entry.get_fingerprint()==fingerprint){
+                    if(term==null) term = ByteBuffer.wrap(token.getBytes(StandardCharsets.UTF_8));
+                    if(term.equals(readTerm(entry.get_term_ptr()))){
+                        return entry;
+                    }
+                }
+                target_bucket = next_bucket(target_bucket, table_size);
+            }
+
+            return null;
+        }
+
+
+        /** Returns the term of a dictionary entry. */
+        String getTerm( Entry entry ) {
+            ByteBuffer term = readTerm( entry.get_term_ptr() );
+            byte[] bytes = new byte[term.remaining()];
+            term.get( bytes );
+            return new String( bytes, StandardCharsets.UTF_8 );
+        }
+
+
+        // Reading the snapshot as an index
+
+        public PostingsList getPostings( String token ) {
+            PostingsCache cache = postings_cache;
+            if ( cache != null && generation != null ) {
+                PostingsList list = cache.get( cache_prefix + token );
+                if ( list != null ) {
+                    return list;
+                }
+            }
+            Entry entry = findEntry(token);
+            if(entry==null) return null;
+            PostingsList list = codec.decode(readData(entry.get_ptr(), entry.get_size()));
+            if ( cache != null ) {
+                cache.put( cache_prefix + token, list );
+            }
+            return list;
+        }
+
+        public PostingsCursor getCursor( String token ) {
+            if ( postings_cache != null ) {
+                PostingsList list = getPostings( token );
+                return list == null ? null : list.cursor();
+            }
+            Entry entry = findEntry(token);
+            if(entry==null) return null;
+            return codec.cursor(readData(entry.get_ptr(), entry.get_size()));
+        }
+
+        public double getMaxNormalizedTf( String token ) {
+            Entry entry = findEntry(token);
+            return entry == null ? 0 : entry.max_tf;
+        }
+
+        public long getCollectionFrequency( String token ) {
+            Entry entry = findEntry(token);
+            return entry == null ? 0 : entry.cf;
+        }
+
+        public String getDocName( int docID ) {
+            return docInfo == null ? null : docInfo.getDocName( docID );
+        }
+
+        public int getDocLength( int docID ) {
+            return docInfo == null ? 0 : docInfo.getDocLength( docID );
+        }
+
+        public int getDocID( String fileName ) {
+            return docInfo == null ? -1 : docInfo.getDocID( fileName );
+        }
+
+        public int getNorm( int docID ) {
+            return norms == null ? 0 : norms.getNorm( docID );
+        }
+
+        public long getTotalLength() {
+            return norms == null ? 0 : norms.getTotalLength();
+        }
+
+        public double getEuclideanLength( int docID ) {
+            return euclidean == null ? 0 : euclidean.getLength( docID );
+        }
+
+        public int getNumberOfDocs() {
+            return docInfo == null ? 0 : docInfo.size();
+        }
+
+        public int getDocIDLimit() {
+            return docInfo == null ? 0 : docInfo.end();
+        }
+
+        public long getVersion() {
+            return version;
         }
     }
 
@@ -109,52 +543,83 @@ public class PersistentHashedIndex implements Index {
      *  If these files don't exist, they will be created. 
      */
     public PersistentHashedIndex() {
-        try {
-            dictionaryFile = new RandomAccessFile( INDEXDIR + "/" + DICTIONARY_FNAME, "rw" );
-            dataFile = new RandomAccessFile( INDEXDIR + "/" + DATA_FNAME, "rw" );
-        } catch ( IOException e ) {
-            e.printStackTrace();
-        }
+        this( false );
+    }
+
+    /**
+     *  Constructor. If <code>memory_mapped</code> is true, the dictionary and
+     *  data files are mapped into memory and all lookups read from the
+     *  mappings instead of seeking in the files.
+     */
+    public PersistentHashedIndex( boolean memory_mapped ) {
+        this( INDEXDIR, memory_mapped );
+    }
 
+    /**
+     *  Constructor. Opens the index files of the newest intact generation
+     *  in the directory <code>dir</code>, which is created if needed. If
+     *  there is no such generation, the index is empty until it is written.
+     */
+    public PersistentHashedIndex( String dir, boolean memory_mapped ) {
+        this.dir = dir;
+        this.memory_mapped = memory_mapped;
+        new File( dir ).mkdirs();
+        Generation generation = Generation.latest( dir );
+        if ( generation == null ) {
+            return;
+        }
         try {
-            readDocInfo();
-        } catch ( FileNotFoundException e ) {
+            publish( new Snapshot( generation ));
         } catch ( IOException e ) {
             e.printStackTrace();
         }
     }
 
+
+    /**
+     *  Opens the dictionary, data and terms files of a new generation for
+     *  writing.
+     */
+    private void openFiles( Generation g ) throws IOException {
+        dictionaryFile = new RandomAccessFile( g.file( DICTIONARY_FNAME ), "rw" );
+        dataFile = new RandomAccessFile( g.file( DATA_FNAME ), "rw" );
+        termsFile = new RandomAccessFile( g.file( TERMS_FNAME ), "rw" );
+    }
+
     /**
-     *  Writes data to the data file at a specified place.
+     *  Closes the files written. Searches read the generation through a
+     *  snapshot of their own.
+     */
+    private void closeFiles() throws IOException {
+        dictionaryFile.close();
+        dataFile.close();
+        termsFile.close();
+        dictionaryFile = null;
+        dataFile = null;
+        termsFile = null;
+    }
+
+    /**
+     *  Appends data to the data file. Only used while the index is written.
      *
      *  @return The number of bytes written.
      */ 
-    int writeData( String dataString, long ptr ) {
-        try {
-            dataFile.seek( ptr ); 
-            byte[] data = dataString.getBytes();
-            dataFile.write( data );
-            return data.length;
-        } catch ( IOException e ) {
-            e.printStackTrace();
-            return -1;
-        }
+    int writeData( byte[] data ) throws IOException {
+        dataOut.write( data );
+        return data.length;
     }
 
 
     /**
-     *  Reads data from the data file
-     */ 
-    String readData( long ptr, int size ) {
-        try {
-            dataFile.seek( ptr );
-            byte[] data = new byte[size];
-            dataFile.readFully( data );
-            return new String(data);
-        } catch ( IOException e ) {
-            e.printStackTrace();
-            return null;
-        }
+     *  Appends a term to the terms file. Only used while the index is written.
+     *
+     *  @return The number of bytes written.
+     */
+    int writeTerm( String term ) throws IOException {
+        byte[] data = term.getBytes( StandardCharsets.UTF_8 );
+        termsOut.writeInt( data.length );
+        termsOut.write( data );
+        return 4 + data.length;
     }
 
 
@@ -165,173 +630,457 @@ public class PersistentHashedIndex implements Index {
     /*
      *  Writes an entry to the dictionary hash table file. 
      *
-     *  @param entry The key of this entry is assumed to have a fixed length
+     *  @param entry The entry, stored as a record of ENTRY_SIZE bytes
      *  @param ptr   The place in the dictionary file to store the entry
      */
     void writeEntry( Entry entry, long ptr ) {
-        //
-        //  YOUR CODE HERE
-        //
         try {
+            entryBuffer.clear();
+            entry.write( entryBuffer );
             dictionaryFile.seek( ptr );
-            dictionaryFile.writeBytes(entry.toString());
+            dictionaryFile.write( entryBuffer.array() );
         } catch ( IOException e ) {
             e.printStackTrace();
         }
     }
 
+
+    // ==================================================================
+
     /**
-     *  Reads an entry from the dictionary file.
-     *
-     *  @param ptr The place in the dictionary file where to start reading.
+     *  Writes the document names and document lengths to file, and the
+     *  lengths again, quantized, to the norms file.
      */
-    Entry readEntry( long ptr ) {
-        //
-        //  REPLACE THE STATEMENT BELOW WITH YOUR CODE 
-        //
+    private void writeDocInfo( Generation g ) throws IOException {
+        DocInfo.write( g.file( DOCINFO_FNAME ), doc_names, doc_lengths, first_doc, end_doc );
+        new Norms( doc_lengths, first_doc, end_doc ).write( g.file( NORMS_FNAME ));
+    }
 
-        try{
-            dictionaryFile.seek(ptr);
-            byte[] data = new byte[max_key_size];
-            dictionaryFile.readFully( data );
-            String result = new String(data);
-            List<String> entry_list = Arrays.asList(result.split(","));
-            Entry entry = new Entry(Math.abs(Long.parseLong(entry_list.get(0))),Integer.parseInt(entry_list.get(1)),Integer.parseInt(entry_list.get(2)));
-            // Entry entry = new Entry(Math.abs(Long.parseLong(entry_list.get(0))),Integer.parseInt(entry_list.get(1)));
-            return entry;
-        
-        } catch(IOException e){
-            e.printStackTrace();
-            return null;
+
+    /**
+     *  Makes a snapshot the one that searches read from, drops the cached
+     *  lists of the snapshot it replaces, and pins the most frequent terms
+     *  of the new one.
+     */
+    private void publish( Snapshot s ) {
+        Snapshot old = snapshot;
+        s.version = ++version;
+        snapshot = s;
+        if ( postings_cache != null && old.generation != null ) {
+            postings_cache.forget( old.cache_prefix );
         }
+        pinTerms( s );
     }
 
 
-    // ==================================================================
+    /**
+     *  Caches the decoded postings lists of this index in <code>cache</code>,
+     *  which may be shared with other indexes, and pins the lists of the
+     *  <code>pinned_terms</code> terms with the largest document frequencies.
+     */
+    public void setPostingsCache( PostingsCache cache, int pinned_terms ) {
+        forgetCachedPostings();
+        this.postings_cache = cache;
+        this.pinned_terms = pinned_terms;
+        pinTerms( snapshot );
+    }
+
 
     /**
-     *  Writes the document names and document lengths to file.
-     *
-     * @throws IOException  { exception_description }
+     *  Pins the lists of the most frequent terms of a snapshot in the cache.
      */
-    private void writeDocInfo() throws IOException {
-        FileOutputStream fout = new FileOutputStream( INDEXDIR + "/docInfo" );
-        for (Map.Entry<Integer,String> entry : docNames.entrySet()) {
-            Integer key = entry.getKey();
-            String docInfoEntry = key + ";" + entry.getValue() + ";" + docLengths.get(key) + "\n";
-            fout.write(docInfoEntry.getBytes());
+    private void pinTerms( Snapshot s ) {
+        if ( postings_cache == null || s.generation == null || pinned_terms <= 0 ) {
+            return;
+        }
+        PriorityQueue<Entry> top = new PriorityQueue<Entry>( Comparator.comparingInt( (Entry e) -> e.df ));
+        for ( long bucket=0; bucket<s.table_size*ENTRY_SIZE; bucket+=ENTRY_SIZE ) {
+            Entry entry = s.readEntry( bucket );
+            if ( entry != null && !entry.is_empty() ) {
+                top.add( entry );
+                if ( top.size() > pinned_terms ) {
+                    top.poll();
+                }
+            }
+        }
+        ArrayList<Entry> entries = new ArrayList<Entry>( top );
+        entries.sort( Comparator.comparingInt( (Entry e) -> e.df ).reversed() );
+        for ( Entry entry : entries ) {
+            PostingsList list = codec.decode( s.readData( entry.get_ptr(), entry.get_size() ));
+            if ( !postings_cache.pin( s.cache_prefix + s.getTerm( entry ), list )) {
+                break;
+            }
         }
-        fout.close();
     }
 
 
     /**
-     *  Reads the document names and document lengths from file, and
-     *  put them in the appropriate data structures.
-     *
-     * @throws     IOException  { exception_description }
-     */
-    private void readDocInfo() throws IOException {
-        File file = new File( INDEXDIR + "/docInfo" );
-        FileReader freader = new FileReader(file);
-        try (BufferedReader br = new BufferedReader(freader)) {
-            String line;
-            while ((line = br.readLine()) != null) {
-                String[] data = line.split(";");
-                docNames.put(new Integer(data[0]), data[1]);
-                docLengths.put(new Integer(data[0]), new Integer(data[2]));
-                docIDs.put(getFileName(data[1]), new Integer(data[0]));
+     *  Drops the cached lists of this index. A search still reading the
+     *  index may cache a few lists again; they are evicted in time.
+     */
+    void forgetCachedPostings() {
+        Snapshot s = snapshot;
+        if ( postings_cache != null && s.generation != null ) {
+            postings_cache.forget( s.cache_prefix );
+        }
+    }
+
+
+    /**
+     *  Starts computing the Euclidean lengths of the documents of this
+     *  index. The postings lists add to them as they are committed.
+     */
+    private EuclideanNorms startNorms() {
+        int last = first_doc - 1;
+        int n = 0;
+        for ( int docID : doc_lengths.keySet() ) {
+            if ( docID >= first_doc && docID < end_doc ) {
+                last = Math.max( last, docID );
+                n++;
             }
         }
-        freader.close();
+        return new EuclideanNorms( first_doc, last + 1, n );
+    }
+
+
+    /**
+     *  Removes the documents of this index from the main-memory maps once
+     *  they have been written. From then on they are read from the doc info
+     *  file.
+     */
+    private void forgetDocs() {
+        doc_names.keySet().removeIf( d -> d >= first_doc && d < end_doc );
+        doc_lengths.keySet().removeIf( d -> d >= first_doc && d < end_doc );
+        docIDs.values().removeIf( d -> d >= first_doc && d < end_doc );
+    }
+
+
+    /**
+     *  Makes the index take the names and lengths of its documents from
+     *  these maps when it is written, instead of the shared maps.
+     */
+    public void setDocInfo( Map<Integer,String> names, Map<Integer,Integer> lengths ) {
+        doc_names = names;
+        doc_lengths = lengths;
+    }
+
+    /**
+     *  Sets the fraction of dictionary slots to fill when the index is
+     *  written. Lower values give shorter probe sequences but a larger
+     *  dictionary file.
+     */
+    public void setLoadFactor( double load_factor ) {
+        if ( load_factor <= 0 || load_factor >= 1 ) {
+            throw new IllegalArgumentException( "Load factor must be between 0 and 1: " + load_factor );
+        }
+        this.load_factor = load_factor;
+    }
+
+    /**
+     *  Restricts the documents of this index to the docIDs from
+     *  <code>first_doc</code> up to (but not including) <code>end_doc</code>.
+     */
+    public void setDocRange( int first_doc, int end_doc ) {
+        this.first_doc = first_doc;
+        this.end_doc = end_doc;
+    }
+
+    /**
+     *  Sets the number of bytes the main-memory hash map may use (as
+     *  estimated from its number of terms and postings) before it is
+     *  flushed to disk as a block.
+     */
+    public void setMemoryBudget( long memory_budget ) {
+        this.memory_budget = memory_budget;
     }
 
     /**
      *  Write the index to files.
+     *
+     *  The files go to a new generation, which only replaces the current
+     *  one when all of them are written and synced to disk. An index that
+     *  is killed while being written thus keeps serving the old generation
+     *  on the next startup.
      */
     public void writeIndex() {
         System.out.println("Writing index");
-        int collisions = 0;
         try {
+            Generation next = Generation.create( dir );
+
             // Write the 'docNames' and 'docLengths' hash maps to a file
-            writeDocInfo();
-            int track = 0;
+            writeDocInfo( next );
+            writing_norms = startNorms();
+
+            openFiles( next );
+            this.free = 0L;
+            this.free_term = 0L;
+
+            // The data and terms files are written sequentially. The streams
+            // are only flushed, as closing them would close the files.
+            dataFile.seek( 0 );
+            termsFile.seek( 0 );
+            dataOut = new DataOutputStream( new BufferedOutputStream( Channels.newOutputStream( dataFile.getChannel() )));
+            termsOut = new DataOutputStream( new BufferedOutputStream( Channels.newOutputStream( termsFile.getChannel() )));
+
+            // Write the postings lists, either straight from the hash map or
+            // by merging the blocks flushed during indexing
+            ArrayList<Entry> entries = new ArrayList<Entry>();
+            if(block_count == 0){
+                for(String w : this.index.keySet()){
+                    commitTerm(w, this.index.get(w), entries);
+                }
+            } else {
+                flushBlock();
+                mergeBlocks(entries);
+            }
+            dataOut.flush();
+            termsOut.flush();
+            dataOut = null;
+            termsOut = null;
+
+            writeDictionary(entries);
+            writing_norms.finish();
+            writing_norms.write( next.file( DOCNORMS_FNAME ));
+            writing_norms = null;
+            closeFiles();
+            next.commit( DICTIONARY_FNAME, DATA_FNAME, TERMS_FNAME, DOCINFO_FNAME, NORMS_FNAME, DOCNORMS_FNAME );
+            publish( new Snapshot( next ));
+            Generation.prune( dir, next );
+            forgetDocs();
+        } catch ( IOException e ) {
+            e.printStackTrace();
+        }
+    }
 
-            // Write the dictionary and the postings list
 
-            for(String w : this.index.keySet()){
-                PostingsList w_list = this.index.get(w);
-                String w_list_string = w_list.get_string_list();
-                long ptr = this.free;
-                int size = writeData(w_list_string,this.free);
-                this.free += size;
+    /**
+     *  Appends the postings list and the term to the data and terms files,
+     *  and adds the dictionary entry pointing to them to <code>entries</code>.
+     */
+    private void commitTerm( String w, PostingsList w_list, ArrayList<Entry> entries ) throws IOException {
+        Entry entry = new Entry(this.free,0,w_list.size(),fingerprint(w),this.free_term);
+        entry.cf = w_list.collectionFrequency();
+        writing_norms.add(w_list);
+        entry.max_tf = maxNormalizedTf(w_list);
+        entry.size = writeData(codec.encode(w_list));
+        this.free += entry.size;
+        this.free_term += writeTerm(w);
+        entries.add(entry);
+        if(entries.size() % PROGRESS_INTERVAL == 0) print("Finished "+String.valueOf(entries.size())+" entries.");
+    }
 
-                int sum = 0;
-                for(char c: w.toCharArray()) sum += (int)c;
-                Entry entry = new Entry(ptr,sum,size);
-                // Entry entry = new Entry(ptr,size);
 
-                long target_bucket = this.get_bucket(w);
+    /**
+     *  Returns the largest normalized term frequency in a postings list,
+     *  rounded up to a float. It is infinite if the length of a document is
+     *  unknown, which turns off pruning for the term.
+     */
+    private float maxNormalizedTf( PostingsList list ) {
+        double max = 0;
+        for ( int i=0; i<list.size(); i++ ) {
+            Integer length = doc_lengths.get( list.docID(i) );
+            if ( length == null || length == 0 ) {
+                return Float.POSITIVE_INFINITY;
+            }
+            max = Math.max( max, (double)list.tf(i) / length );
+        }
+        float bound = (float)max;
+        return bound < max ? Math.nextUp( bound ) : bound;
+    }
 
-                while(this.dict_entries_taken.contains(target_bucket)) {
-                    collisions+=1;
-                    target_bucket+=max_key_size;
-                    // target_bucket%=TABLESIZE;
-                }
 
-                this.writeEntry(entry, target_bucket);
-                this.dict_entries_taken.add(target_bucket);
+    /**
+     *  Writes the dictionary hash table, sized for the given entries.
+     */
+    private void writeDictionary( ArrayList<Entry> entries ) throws IOException {
+        long collisions = 0;
+
+        // Size the table for the terms at hand, and keep track of the
+        // occupied slots in memory (one bit per slot)
+        term_count = entries.size();
+        table_size = Math.max(MIN_TABLESIZE, (long)Math.ceil(entries.size() / load_factor));
+        BitSet taken = new BitSet((int)table_size);
 
-                // if(w.equals("what")) print("Found the word what at index"+String.valueOf(target_bucket)+" pointing to entry: "+String.valueOf(ptr));
+        for(Entry entry : entries){
+            long target_bucket = get_bucket(entry.get_fingerprint(), table_size);
 
-                print("Finished "+String.valueOf(track)+" entries.");
-                track+=1;
+            while(taken.get((int)(target_bucket / ENTRY_SIZE))) {
+                collisions+=1;
+                target_bucket = next_bucket(target_bucket, table_size);
+            }
+
+            this.writeEntry(entry, target_bucket);
+            taken.set((int)(target_bucket / ENTRY_SIZE));
+        }
+        // The table size is recovered from the file length when it is read
+        dictionaryFile.setLength( table_size * ENTRY_SIZE );
+        System.err.println( collisions + " collisions in a table of " + table_size + " slots." );
+    }
+
+
+    /**
+     *  Writes the terms in the main-memory hash map, in sorted order and
+     *  with their encoded postings lists, to a new block file and empties
+     *  the hash map.
+     */
+    private void flushBlock() {
+        String fname = dir + "/" + BLOCK_FNAME + block_count;
+        System.err.println( "Writing block " + block_count + " with " + index.size() + " terms" );
+        ArrayList<String> terms = new ArrayList<String>(index.keySet());
+        Collections.sort(terms);
+        try (DataOutputStream out = new DataOutputStream( new BufferedOutputStream( new FileOutputStream( fname )))) {
+            out.writeInt( terms.size() );
+            for(String w : terms){
+                byte[] term = w.getBytes( StandardCharsets.UTF_8 );
+                byte[] data = codec.encode( index.get(w) );
+                out.writeInt( term.length );
+                out.write( term );
+                out.writeInt( data.length );
+                out.write( data );
             }
         } catch ( IOException e ) {
             e.printStackTrace();
         }
-        System.err.println( collisions + " collisions." );
+        block_count++;
+        index.clear();
+        memory_used = 0L;
+    }
+
+
+    /**
+     *  Merges all blocks into the data and terms files, reading each block
+     *  sequentially. The postings of a term that occurs in several blocks
+     *  are concatenated in block order, which is also docID order.
+     */
+    private void mergeBlocks( ArrayList<Entry> entries ) throws IOException {
+        PriorityQueue<BlockReader> queue = new PriorityQueue<BlockReader>();
+        for(int i=0; i<block_count; i++){
+            BlockReader reader = new BlockReader(i);
+            if(reader.next()) queue.add(reader);
+        }
+        while(!queue.isEmpty()){
+            BlockReader reader = queue.poll();
+            String w = reader.term;
+            PostingsList w_list = codec.decode(ByteBuffer.wrap(reader.data));
+            advance(reader, queue);
+            while(!queue.isEmpty() && queue.peek().term.equals(w)){
+                BlockReader other = queue.poll();
+                PostingsList more = codec.decode(ByteBuffer.wrap(other.data));
+                w_list.addAll(more);
+                advance(other, queue);
+            }
+            commitTerm(w, w_list, entries);
+        }
+        for(int i=0; i<block_count; i++){
+            new File( dir + "/" + BLOCK_FNAME + i ).delete();
+        }
+        block_count = 0;
+    }
+
+
+    /**
+     *  Moves a block reader to its next term, putting it back in the queue
+     *  unless the block is exhausted.
+     */
+    private void advance( BlockReader reader, PriorityQueue<BlockReader> queue ) throws IOException {
+        if(reader.next()) queue.add(reader);
+        else reader.close();
+    }
+
+
+    /**
+     *   Reads the terms and encoded postings lists of one block file in order.
+     *   Readers are ordered by their current term, then by block number.
+     */
+    private class BlockReader implements Comparable<BlockReader> {
+        int block;
+        DataInputStream in;
+        int remaining;
+        String term;
+        byte[] data;
+
+        BlockReader( int block ) throws IOException {
+            this.block = block;
+            in = new DataInputStream( new BufferedInputStream( new FileInputStream( dir + "/" + BLOCK_FNAME + block )));
+            remaining = in.readInt();
+        }
+
+        /** Reads the next term, or returns false if there are no more terms in the block. */
+        boolean next() throws IOException {
+            if(remaining == 0) return false;
+            remaining--;
+            byte[] t = new byte[in.readInt()];
+            in.readFully(t);
+            term = new String(t, StandardCharsets.UTF_8);
+            data = new byte[in.readInt()];
+            in.readFully(data);
+            return true;
+        }
+
+        void close() throws IOException {
+            in.close();
+        }
+
+        public int compareTo( BlockReader other ) {
+            int c = term.compareTo(other.term);
+            return c != 0 ? c : Integer.compare(block, other.block);
+        }
     }
 
     // ==================================================================
 
 
+    /**
+     *  Returns the committed index as it is now. Searches that read it are
+     *  not affected by later commits.
+     */
+    public IndexReader snapshot() {
+        return snapshot;
+    }
+
+
     /**
      *  Returns the postings for a specific term, or null
      *  if the term is not in the index.
      */
     public PostingsList getPostings( String token ) {
-        //
-        //  REPLACE THE STATEMENT BELOW WITH YOUR CODE
-        //
-        long target_bucket = this.get_bucket(token);
+        return snapshot.getPostings( token );
+    }
 
-        Entry entry = readEntry(target_bucket);
 
-        while(!Objects.isNull(entry)){
+    /**
+     *  Returns a cursor over the postings for a specific term, or null if
+     *  the term is not in the index. The postings are decoded as the cursor
+     *  visits them, and blocks skipped by advance() are not decoded at all.
+     *  With a postings cache, the cursor is over the cached decoded list.
+     */
+    public PostingsCursor getCursor( String token ) {
+        return snapshot.getCursor( token );
+    }
 
-            int sum = 0;
-            for(char c: token.toCharArray()) sum += (int)c;
 
-            if(entry.get_sum()==sum){
-                String postings_list = readData(entry.get_ptr(), entry.get_size());
-                List<String> posting_entries = Arrays.asList(postings_list.split(","));
-                PostingsList result = new PostingsList();
-                for(String s: posting_entries){
-                    s = s.trim();
-                    List<String> entries = Arrays.asList(s.split(" "));
-                    int docID = Integer.parseInt(entries.get(0));
-                    int offset = Integer.parseInt(entries.get(1));
-                    result.insert(new PostingsEntry(docID,offset));
-                }
-                return result;
-            } else{
-                target_bucket += max_key_size;
-                entry = readEntry(target_bucket);
+    /**
+     *  Returns the largest normalized term frequency of a term, as stored
+     *  in its dictionary entry when the index was written.
+     */
+    public double getMaxNormalizedTf( String token ) {
+        return snapshot.getMaxNormalizedTf( token );
+    }
+
+
+    /**
+     *  Returns all terms in the index on disk, in dictionary order.
+     */
+    public ArrayList<String> getTerms() {
+        ArrayList<String> terms = new ArrayList<String>();
+        Snapshot s = snapshot;
+        for(long bucket=0; bucket<s.table_size*ENTRY_SIZE; bucket+=ENTRY_SIZE){
+            Entry entry = s.readEntry(bucket);
+            if(entry!=null && !entry.is_empty()){
+                terms.add(s.getTerm(entry));
             }
         }
-
-        return null;
+        return terms;
     }
 
 
@@ -342,8 +1091,32 @@ public class PersistentHashedIndex implements Index {
         //
         //  YOUR CODE HERE
         //
-        if(!this.index.containsKey(token)) this.index.put(token, new PostingsList());
-        this.index.get(token).insert(new PostingsEntry(docID,offset));
+        PostingsList list = this.index.get(token);
+        if(list == null){
+            list = new PostingsList();
+            this.index.put(token, list);
+            memory_used += TERM_BYTES + 2 * token.length();
+        }
+        list.insert(docID, offset);
+        memory_used += POSTING_BYTES;
+        if(memory_used > memory_budget) flushBlock();
+    }
+
+
+    /**
+     *  Appends the postings of a term to its list in the main-memory
+     *  hashtable, counting them against the memory budget like insert.
+     */
+    public void insertAll( String token, PostingsList postings ) {
+        PostingsList list = this.index.get(token);
+        if(list == null){
+            this.index.put(token, postings);
+            memory_used += TERM_BYTES + 2 * token.length();
+        } else {
+            list.addAll(postings);
+        }
+        memory_used += (long) POSTING_BYTES * postings.collectionFrequency();
+        if(memory_used > memory_budget) flushBlock();
     }
 
 
@@ -351,10 +1124,10 @@ public class PersistentHashedIndex implements Index {
      *  Write index to file after indexing is done.
      */
     public void cleanup() {
-        System.err.println( index.keySet().size() + " unique words" );
         System.err.print( "Writing index to disk..." );
         writeIndex();
         System.err.println( "done!" );
+        System.err.println( term_count + " unique words" );
         print("\n");
     }
 
@@ -362,23 +1135,83 @@ public class PersistentHashedIndex implements Index {
         System.out.println(s);
     }
 
+    public String getDocName( int docID ) {
+        return snapshot.getDocName( docID );
+    }
+
+    public int getDocLength( int docID ) {
+        return snapshot.getDocLength( docID );
+    }
+
+    public int getDocID( String fileName ) {
+        return snapshot.getDocID( fileName );
+    }
+
+    public int getNorm( int docID ) {
+        return snapshot.getNorm( docID );
+    }
+
+    public long getTotalLength() {
+        return snapshot.getTotalLength();
+    }
+
+    public double getEuclideanLength( int docID ) {
+        return snapshot.getEuclideanLength( docID );
+    }
+
+    public long getCollectionFrequency( String token ) {
+        return snapshot.getCollectionFrequency( token );
+    }
+
+    public int getNumberOfDocs() {
+        return snapshot.getNumberOfDocs();
+    }
+
+    public int getDocIDLimit() {
+        return snapshot.getDocIDLimit();
+    }
+
+    public long getVersion() {
+        return version;
+    }
+
     public int get_size(){
-        return this.index.size();
+        return block_count == 0 && this.index.isEmpty() ? this.term_count : this.index.size();
     }
 
+    /**
+     *  Returns the place in the dictionary file where probing for
+     *  <code>w</code> starts.
+     */
     public long get_bucket(String w){
-        long hash = Long.valueOf(w.hashCode());
+        Snapshot s = snapshot;
+        return s.table_size == 0 ? 0 : get_bucket(fingerprint(w), s.table_size);
+    }
 
-        // long target_bucket = (hash * 33L + 11L)%TABLESIZE;
-        long target_bucket = hash % TABLESIZE;
+    static long get_bucket(long fingerprint, long table_size){
+        return Math.floorMod(fingerprint, table_size) * ENTRY_SIZE;
+    }
 
-        if(target_bucket<0) target_bucket+=TABLESIZE;
-        
-        target_bucket = (target_bucket * 33L + 11L);
+    /**
+     *  Returns the next slot to probe after <code>bucket</code> (linear
+     *  probing, wrapping around at the end of the table).
+     */
+    static long next_bucket(long bucket, long table_size){
+        bucket += ENTRY_SIZE;
+        if(bucket >= table_size * ENTRY_SIZE) bucket = 0;
+        return bucket;
+    }
 
-        target_bucket -= target_bucket%max_key_size;
-        
-        return target_bucket;
+    /**
+     *  Computes a 64-bit FNV-1a fingerprint of a term.
+     */
+    public static long fingerprint(String w){
+        long hash = 0xcbf29ce484222325L;
+        for(int i=0; i<w.length(); i++){
+            hash ^= w.charAt(i);
+            hash *= 0x100000001b3L;
+        }
+        return hash;
     }
     
     public String getFileName(String path) {
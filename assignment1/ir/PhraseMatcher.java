@@ -0,0 +1,80 @@
+/*
+ *   This file is part of the computer assignment for the
+ *   Information Retrieval course at KTH.
+ */
+
+package ir;
+
+
+/**
+ *   Decides whether the terms of a phrase occur in order in a document,
+ *   by merging the sorted positions of the terms in that document.
+ *
+ *   The cursors of the terms (one per phrase position, in phrase order)
+ *   must all be positioned on the document. Term j+1 must occur after
+ *   term j, with at most <code>slop</code> other tokens in between; a slop
+ *   of 0 means an exact phrase. The positions of term j that can end a
+ *   match of the first j+1 terms are found from those of term j in one
+ *   linear pass, so a document costs the sum of the term frequencies.
+ */
+public class PhraseMatcher {
+
+    /** The cursors of the terms, in phrase order. */
+    private PostingsCursor[] cursors;
+
+    /** The number of tokens allowed between consecutive terms. */
+    private int slop;
+
+    /** The positions where a match of the terms so far can end, and the next ones. */
+    private int[] ends = new int[64], next = new int[64];
+
+
+    public PhraseMatcher( PostingsCursor[] cursors, int slop ) {
+        this.cursors = cursors;
+        this.slop = slop;
+    }
+
+
+    /**
+     *  Returns true if the phrase occurs in the document the cursors are
+     *  positioned on.
+     */
+    public boolean matches( int docID ) {
+        PostingsCursor first = cursors[0];
+        int n = first.tf();
+        if ( ends.length < n ) {
+            ends = new int[n];
+        }
+        for ( int k=0; k<n; k++ ) {
+            ends[k] = first.position( k );
+        }
+        for ( int j=1; j<cursors.length && n > 0; j++ ) {
+            PostingsCursor cursor = cursors[j];
+            int tf = cursor.tf();
+            if ( next.length < tf ) {
+                next = new int[tf];
+            }
+            // Keep the positions q of term j with an end r such that
+            // q - 1 - slop <= r < q. Both lists are sorted, so the
+            // smallest candidate r only moves forward.
+            int m = 0, r = 0;
+            for ( int k=0; k<tf; k++ ) {
+                int q = cursor.position( k );
+                while ( r < n && ends[r] < q - 1 - slop ) {
+                    r++;
+                }
+                if ( r == n ) {
+                    break;
+                }
+                if ( ends[r] < q ) {
+                    next[m++] = q;
+                }
+            }
+            int[] tmp = ends;
+            ends = next;
+            next = tmp;
+            n = m;
+        }
+        return n > 0;
+    }
+}
@@ -0,0 +1,216 @@
+/*
+ *   This file is part of the computer assignment for the
+ *   Information Retrieval course at KTH.
+ */
+
+package ir;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+
+/**
+ *   Keeps decoded postings lists in memory within a budget of bytes.
+ *
+ *   Eviction is segmented LRU: a list enters the probationary segment, and
+ *   moves to the protected segment when it is used again. The protected
+ *   segment holds at most PROTECTED_SHARE of the budget; lists pushed out
+ *   of it go back to probation. When the budget is exceeded, the least
+ *   recently used list on probation is evicted first, so a burst of terms
+ *   used once does not push out the terms used all the time.
+ *
+ *   Pinned lists are never evicted, but count against the budget.
+ *
+ *   Keys start with a prefix naming the files the lists were read from (see
+ *   PersistentHashedIndex), so that one cache can serve several indexes,
+ *   and the lists of files no longer in use can be forgotten.
+ *
+ *   The cached lists are shared with the callers, who must not modify them.
+ */
+public class PostingsCache {
+
+    /** The share of the budget that the protected segment may use. */
+    static final double PROTECTED_SHARE = 0.8;
+
+    /** The budget in bytes. */
+    private final long budget;
+
+    /** The lists on probation and the protected ones, least recently used first, and the pinned ones. */
+    private final LinkedHashMap<String,PostingsList> probation = new LinkedHashMap<String,PostingsList>( 16, 0.75f, true );
+    private final LinkedHashMap<String,PostingsList> protect = new LinkedHashMap<String,PostingsList>( 16, 0.75f, true );
+    private final HashMap<String,PostingsList> pinned = new HashMap<String,PostingsList>();
+
+    /** The estimated sizes of the segments. */
+    private long probation_bytes = 0, protected_bytes = 0, pinned_bytes = 0;
+
+    /** Statistics. */
+    private long hits = 0, misses = 0, evictions = 0;
+
+
+    public PostingsCache( long budget ) {
+        this.budget = budget;
+    }
+
+
+    /**
+     *  Returns the cached list with the given key, or null if there is none.
+     */
+    public synchronized PostingsList get( String key ) {
+        PostingsList list = pinned.get( key );
+        if ( list == null ) {
+            list = protect.get( key );
+        }
+        if ( list == null ) {
+            list = probation.remove( key );
+            if ( list != null ) {
+                // Used again: promote it
+                probation_bytes -= sizeOf( list );
+                protect.put( key, list );
+                protected_bytes += sizeOf( list );
+                Iterator<Map.Entry<String,PostingsList>> eldest = protect.entrySet().iterator();
+                while ( protected_bytes > PROTECTED_SHARE * budget ) {
+                    Map.Entry<String,PostingsList> entry = eldest.next();
+                    eldest.remove();
+                    protected_bytes -= sizeOf( entry.getValue() );
+                    probation.put( entry.getKey(), entry.getValue() );
+                    probation_bytes += sizeOf( entry.getValue() );
+                }
+            }
+        }
+        if ( list == null ) {
+            misses++;
+        } else {
+            hits++;
+        }
+        return list;
+    }
+
+
+    /**
+     *  Adds a list on probation, evicting others if needed. Lists larger
+     *  than what pinned lists leave of the budget are not cached.
+     */
+    public synchronized void put( String key, PostingsList list ) {
+        long size = sizeOf( list );
+        if ( size > budget - pinned_bytes || pinned.containsKey( key ) || protect.containsKey( key )) {
+            return;
+        }
+        PostingsList old = probation.put( key, list );
+        if ( old != null ) {
+            probation_bytes -= sizeOf( old );
+        }
+        probation_bytes += size;
+        evict();
+    }
+
+
+    /**
+     *  Pins a list, if it fits in the budget after evicting unpinned lists.
+     *
+     *  @return true if the list was pinned.
+     */
+    public synchronized boolean pin( String key, PostingsList list ) {
+        long size = sizeOf( list );
+        if ( pinned_bytes + size > budget ) {
+            return false;
+        }
+        remove( probation, key );
+        remove( protect, key );
+        pinned.put( key, list );
+        pinned_bytes += size;
+        evict();
+        return true;
+    }
+
+
+    /**
+     *  Drops the lists whose keys start with <code>prefix</code>, pinned
+     *  or not.
+     */
+    public synchronized void forget( String prefix ) {
+        probation_bytes -= forget( probation, prefix );
+        protected_bytes -= forget( protect, prefix );
+        pinned_bytes -= forget( pinned, prefix );
+    }
+
+
+    /** Drops the lists of a segment whose keys start with a prefix, and returns their size. */
+    private static long forget( Map<String,PostingsList> segment, String prefix ) {
+        long bytes = 0;
+        Iterator<Map.Entry<String,PostingsList>> it = segment.entrySet().iterator();
+        while ( it.hasNext() ) {
+            Map.Entry<String,PostingsList> entry = it.next();
+            if ( entry.getKey().startsWith( prefix )) {
+                bytes += sizeOf( entry.getValue() );
+                it.remove();
+            }
+        }
+        return bytes;
+    }
+
+
+    /** Evicts unpinned lists, probation first, until the budget holds. */
+    private void evict() {
+        Iterator<Map.Entry<String,PostingsList>> eldest = probation.entrySet().iterator();
+        while ( probation_bytes + protected_bytes + pinned_bytes > budget && eldest.hasNext() ) {
+            probation_bytes -= sizeOf( eldest.next().getValue() );
+            eldest.remove();
+            evictions++;
+        }
+        eldest = protect.entrySet().iterator();
+        while ( probation_bytes + protected_bytes + pinned_bytes > budget && eldest.hasNext() ) {
+            protected_bytes -= sizeOf( eldest.next().getValue() );
+            eldest.remove();
+            evictions++;
+        }
+    }
+
+
+    /** Removes a list from the probationary or the protected segment. */
+    private void remove( LinkedHashMap<String,PostingsList> segment, String key ) {
+        PostingsList list = segment.remove( key );
+        if ( list == null ) {
+            return;
+        }
+        if ( segment == probation ) {
+            probation_bytes -= sizeOf( list );
+        } else {
+            protected_bytes -= sizeOf( list );
+        }
+    }
+
+
+    /**
+     *  Returns an estimate of the number of bytes used by a list: the
+     *  docID, term frequency and position start of every document, and
+     *  every position.
+     */
+    static long sizeOf( PostingsList list ) {
+        return 128 + 12L * list.size() + 4L * list.collectionFrequency();
+    }
+
+
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    public synchronized long getMisses() {
+        return misses;
+    }
+
+    public synchronized long getEvictions() {
+        return evictions;
+    }
+
+
+    @Override
+    public synchronized String toString() {
+        long lookups = hits + misses;
+        return "postings cache: " + (probation.size() + protect.size() + pinned.size()) + " lists (" +
+            ((probation_bytes + protected_bytes + pinned_bytes) >> 10) + " KB, " + pinned.size() + " pinned), " +
+            hits + " hits, " + misses + " misses (" + (lookups == 0 ? 0 : 100 * hits / lookups) + "% hit rate), " +
+            evictions + " evictions";
+    }
+}
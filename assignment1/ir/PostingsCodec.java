@@ -0,0 +1,34 @@
+/*
+ *   This file is part of the computer assignment for the
+ *   Information Retrieval course at KTH.
+ */
+
+package ir;
+
+import java.nio.ByteBuffer;
+
+
+/**
+ *  Defines how postings lists are turned into bytes when they are stored
+ *  in the data file of a persistent index, and back again.
+ */
+public interface PostingsCodec {
+
+    /**
+     *  Encodes a postings list. The postings are assumed to be ordered by
+     *  docID, and by offset within each document.
+     */
+    public byte[] encode( PostingsList list );
+
+    /**
+     *  Decodes the postings list stored between the position and the
+     *  limit of <code>buf</code>.
+     */
+    public PostingsList decode( ByteBuffer buf );
+
+    /**
+     *  Returns a cursor over the postings list stored from the position of
+     *  <code>buf</code>, which decodes documents only as they are visited.
+     */
+    public PostingsCursor cursor( ByteBuffer buf );
+}
@@ -0,0 +1,53 @@
+/*
+ *   This file is part of the computer assignment for the
+ *   Information Retrieval course at KTH.
+ */
+
+package ir;
+
+
+/**
+ *  Iterates over the documents of a postings list in docID order, without
+ *  materializing the list.
+ *
+ *  A cursor starts before the first document, where docID() is -1. Lists
+ *  are divided into blocks of SKIP_INTERVAL documents, and advance() skips
+ *  whole blocks by looking at the last docID of each block only.
+ */
+public interface PostingsCursor {
+
+    /** Returned as docID when the cursor has moved past the last document. */
+    public static final int NO_MORE_DOCS = Integer.MAX_VALUE;
+
+    /** The number of documents per block of a postings list. */
+    public static final int SKIP_INTERVAL = 128;
+
+    /** Returns the docID of the current document, -1 before the first one, or NO_MORE_DOCS. */
+    public int docID();
+
+    /** Moves to the next document and returns its docID, or NO_MORE_DOCS. */
+    public int nextDoc();
+
+    /**
+     *  Moves to the first document whose docID is at least <code>target</code>,
+     *  and returns its docID, or NO_MORE_DOCS. The cursor never moves
+     *  backwards: if the current document is already at or past the target,
+     *  the cursor moves to the next document.
+     */
+    public int advance( int target );
+
+    /** Returns the number of occurrences of the term in the current document. */
+    public int tf();
+
+    /** Returns the kth position of the term in the current document. */
+    public int position( int k );
+
+    /** Returns the number of documents in the list. */
+    public int size();
+
+    /**
+     *  Returns the number of postings the cursor has read so far: every
+     *  document decoded or docID compared, and every skip entry looked at.
+     */
+    public long touched();
+}
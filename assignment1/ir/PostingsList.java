@@ -1,98 +1,332 @@
-/*  
+/*
  *   This file is part of the computer assignment for the
  *   Information Retrieval course at KTH.
- * 
+ *
  *   Johan Boye, 2017
- */  
+ */
 
 package ir;
 
-import java.util.*;
-import java.util.stream.Collectors;
+import java.util.Arrays;
 
+/**
+ *   A postings list, stored column by column in primitive arrays.
+ *
+ *   Document i of the list has docID <code>docIDs[i]</code>, term frequency
+ *   <code>tfs[i]</code>, and its positions (token offsets) are stored in
+ *   <code>positions</code> from <code>posStart[i]</code> up to
+ *   <code>posStart[i+1]</code>. Result lists produced by the Searcher carry
+ *   a score per document instead of positions.
+ *
+ *   Documents are added in docID order while an index is built, and in any
+ *   order to result lists. The docID array itself serves as the skip list
+ *   of a cursor: the last docID of every block of SKIP_INTERVAL documents
+ *   is found at a fixed index.
+ */
 public class PostingsList {
-    
-    /** The postings list */
-    private ArrayList<PostingsEntry> list = new ArrayList<PostingsEntry>();
 
+    /** The number of documents in the list. */
+    private int n = 0;
 
-    private ArrayList<PostingsEntry> filtered_list = new ArrayList<PostingsEntry>();
+    /** The docIDs, term frequencies and scores of the documents. */
+    private int[] docIDs = new int[4];
+    private int[] tfs = new int[4];
+    private double[] scores = null;
 
-    private ArrayList<Integer> docIDsList = new ArrayList<Integer>();
-    private ArrayList<Integer> docIDsList_all = new ArrayList<Integer>();
+    /** Where the positions of each document start, with one extra element after the last document. */
+    private int[] posStart = new int[5];
+
+    /** The positions of all documents, one after the other. */
+    private int[] positions = new int[4];
 
-    // private String list_string = "";
 
     @Override
     public String toString() {
-        // TODO Auto-generated method stub
-        String result = "";
-        for(PostingsEntry entry: this.list){
-            String docID = String.valueOf(entry.docID);
-            String offset = String.valueOf(entry.offset);
-            result += docID + " " + offset+",";
+        StringBuilder result = new StringBuilder();
+        for ( int i=0; i<n; i++ ) {
+            for ( int k=posStart[i]; k<posStart[i+1]; k++ ) {
+                result.append( docIDs[i] ).append( ' ' ).append( positions[k] ).append( ',' );
+            }
         }
-        return result;
-        // return super.toString();
+        return result.toString();
     }
 
-    public ArrayList<PostingsEntry> get_list(){
-        return this.list;
+    /** Number of documents in this list. */
+    public int size() {
+        return n;
     }
 
-    public String get_string_list(){
-        return this.list.stream().map(Object::toString).collect(Collectors.joining(", "));
+    /** Returns the docID of the ith document. */
+    public int docID( int i ) {
+        return docIDs[i];
     }
 
-    /** Number of postings in this list. */
-    public int size() {
-    return list.size();
+    /** Returns the number of occurrences of the term in the ith document. */
+    public int tf( int i ) {
+        return tfs[i];
     }
 
-    /** Returns the ith posting. */
-    public PostingsEntry get( int i ) {
-        return list.get( i );
+    /** Returns the kth position of the term in the ith document. */
+    public int position( int i, int k ) {
+        return positions[posStart[i] + k];
+    }
+
+    /** Returns the score of the ith document. */
+    public double score( int i ) {
+        return scores == null ? 0 : scores[i];
+    }
+
+    /** Sets the score of the ith document. */
+    public void setScore( int i, double score ) {
+        if ( scores == null ) {
+            scores = new double[docIDs.length];
+        }
+        scores[i] = score;
     }
 
-    // 
-    //  YOUR CODE HERE
+    /** Returns the total number of occurrences of the term, in all documents. */
+    public int collectionFrequency() {
+        return posStart[n];
+    }
+
+    /** Returns true if the list contains a document with this docID. */
+    public boolean contains( int docID ) {
+        for ( int i=0; i<n; i++ ) {
+            if ( docIDs[i] == docID ) return true;
+        }
+        return false;
+    }
+
+
     //
-    public void insert(PostingsEntry entry){
-        this.list.add(entry);
-        this.docIDsList_all.add(entry.docID);
-        if(!docIDsList.contains(entry.docID)){
-            this.filtered_list.add(entry);
-            this.docIDsList.add(entry.docID);
+    //  Building lists
+    //
+
+    /**
+     *  Adds an occurrence of the term at the given position in a document.
+     *  If the document is the last one in the list, the position is added
+     *  to it, otherwise the document is appended.
+     */
+    public void insert( int docID, int position ) {
+        if ( n == 0 || docIDs[n-1] != docID ) {
+            addDoc( docID );
         }
-        // this.list_string = this.list_string.concat(entry.docID + " " + entry.offset+",");
+        if ( posStart[n] == positions.length ) {
+            positions = Arrays.copyOf( positions, 2*positions.length );
+        }
+        positions[posStart[n]++] = position;
+        tfs[n-1]++;
     }
 
-    public boolean check_docID(int docID){
-        return this.docIDsList.contains(docID);
+    /**
+     *  Appends a document without positions.
+     */
+    public void addDoc( int docID ) {
+        if ( n == docIDs.length ) {
+            int capacity = 2*n;
+            docIDs = Arrays.copyOf( docIDs, capacity );
+            tfs = Arrays.copyOf( tfs, capacity );
+            posStart = Arrays.copyOf( posStart, capacity+1 );
+            if ( scores != null ) {
+                scores = Arrays.copyOf( scores, capacity );
+            }
+        }
+        docIDs[n] = docID;
+        tfs[n] = 0;
+        posStart[n+1] = posStart[n];
+        n++;
     }
 
-    public ArrayList<PostingsEntry> get_filtered_list(){
-        return this.filtered_list;
+    /**
+     *  Appends a document with a score.
+     */
+    public void addDoc( int docID, double score ) {
+        addDoc( docID );
+        setScore( n-1, score );
     }
 
-    public ArrayList<Integer> get_IDs(){
-        Collections.sort(this.docIDsList);
-        return this.docIDsList;
+    /**
+     *  Appends the ith document of another list, with its positions. If
+     *  the document is the last one in this list, the positions are added
+     *  to it, so that a document split between two lists is kept whole.
+     */
+    public void addDoc( PostingsList other, int i ) {
+        if ( n == 0 || docIDs[n-1] != other.docIDs[i] ) {
+            addDoc( other.docIDs[i] );
+        }
+        for ( int k=other.posStart[i]; k<other.posStart[i+1]; k++ ) {
+            insert( other.docIDs[i], other.positions[k] );
+        }
     }
 
-    public ArrayList<Integer> get_all_IDs(){
-        Collections.sort(this.docIDsList_all);
-        return this.docIDsList_all;
+    /**
+     *  Appends all documents of another list, whose docIDs must all be
+     *  larger than the ones in this list, except that the first one may be
+     *  the last document of this list (see addDoc). The arrays are copied
+     *  whole rather than position by position.
+     */
+    public void addAll( PostingsList other ) {
+        addAll( other, 0, other.n );
     }
 
-    public int get_entry_offset_by_ID(int docID){
-        for(PostingsEntry entry: this.list){
-            if(entry.docID==docID) {
-                this.list.remove(entry);
-                return entry.offset;
+    /**
+     *  Appends the documents of another list from index <code>from</code>
+     *  up to (but not including) index <code>to</code>, as addAll does.
+     */
+    public void addAll( PostingsList other, int from, int to ) {
+        if ( n > 0 && from < to && docIDs[n-1] == other.docIDs[from] ) {
+            addDoc( other, from );
+            from++;
+        }
+        int count = to - from;
+        if ( count <= 0 ) {
+            return;
+        }
+        if ( n + count > docIDs.length ) {
+            int capacity = Math.max( 2*docIDs.length, n + count );
+            docIDs = Arrays.copyOf( docIDs, capacity );
+            tfs = Arrays.copyOf( tfs, capacity );
+            posStart = Arrays.copyOf( posStart, capacity+1 );
+            if ( scores != null ) {
+                scores = Arrays.copyOf( scores, capacity );
             }
         }
-        return 0;
+        int first = other.posStart[from];
+        int length = other.posStart[to] - first;
+        int start = posStart[n];
+        if ( start + length > positions.length ) {
+            positions = Arrays.copyOf( positions, Math.max( 2*positions.length, start + length ));
+        }
+        System.arraycopy( other.docIDs, from, docIDs, n, count );
+        System.arraycopy( other.tfs, from, tfs, n, count );
+        System.arraycopy( other.positions, first, positions, start, length );
+        for ( int i=1; i<=count; i++ ) {
+            posStart[n+i] = other.posStart[from+i] - first + start;
+        }
+        if ( scores != null ) {
+            Arrays.fill( scores, n, n + count, 0 );
+        }
+        n += count;
     }
-}
 
+    /**
+     *  Sorts the documents by decreasing score. Documents with equal scores
+     *  keep their order. Positions are not kept.
+     */
+    public void sortByScore() {
+        if ( n < 2 ) {
+            return;
+        }
+        if ( scores == null ) {
+            scores = new double[docIDs.length];
+        }
+        int[] order = new int[n];
+        for ( int i=0; i<n; i++ ) {
+            order[i] = i;
+        }
+        mergeSort( order, new int[n], 0, n );
+        int[] sortedIDs = new int[docIDs.length];
+        int[] sortedTfs = new int[tfs.length];
+        double[] sortedScores = new double[scores.length];
+        for ( int i=0; i<n; i++ ) {
+            sortedIDs[i] = docIDs[order[i]];
+            sortedTfs[i] = tfs[order[i]];
+            sortedScores[i] = scores[order[i]];
+        }
+        docIDs = sortedIDs;
+        tfs = sortedTfs;
+        scores = sortedScores;
+        Arrays.fill( posStart, 0, n+1, 0 );
+    }
+
+    /** Sorts order[from..to) stably by decreasing score. */
+    private void mergeSort( int[] order, int[] tmp, int from, int to ) {
+        if ( to - from < 2 ) {
+            return;
+        }
+        int mid = (from + to) >>> 1;
+        mergeSort( order, tmp, from, mid );
+        mergeSort( order, tmp, mid, to );
+        int a = from, b = mid, k = from;
+        while ( a < mid && b < to ) {
+            tmp[k++] = scores[order[b]] > scores[order[a]] ? order[b++] : order[a++];
+        }
+        while ( a < mid ) tmp[k++] = order[a++];
+        while ( b < to ) tmp[k++] = order[b++];
+        System.arraycopy( tmp, from, order, from, to - from );
+    }
+
+
+    //
+    //  Iterating over lists
+    //
+
+    /** Returns a cursor positioned before the first document. The list must be in docID order. */
+    public PostingsCursor cursor() {
+        return new Cursor();
+    }
+
+    /**
+     *   Iterates over the documents of a list without creating objects
+     *   per document.
+     */
+    private class Cursor implements PostingsCursor {
+
+        /** The current document. */
+        private int i = -1;
+
+        /** The number of postings read. */
+        private long touched = 0;
+
+        public int nextDoc() {
+            if ( i < n ) {
+                i++;
+                touched++;
+            }
+            return docID();
+        }
+
+        public int advance( int target ) {
+            if ( i < n ) i++;
+            // Skip whole blocks while the last docID of the block is too small
+            int last = (i / PostingsCursor.SKIP_INTERVAL + 1) * PostingsCursor.SKIP_INTERVAL - 1;
+            while ( last < n && docIDs[last] < target ) {
+                touched++;
+                i = last + 1;
+                last += PostingsCursor.SKIP_INTERVAL;
+            }
+            // Binary search for the target within the block
+            int hi = Math.min( last + 1, n );
+            while ( i < hi ) {
+                touched++;
+                int mid = (i + hi) >>> 1;
+                if ( docIDs[mid] < target ) {
+                    i = mid + 1;
+                } else {
+                    hi = mid;
+                }
+            }
+            return docID();
+        }
+
+        public int docID() {
+            return i < 0 ? -1 : i < n ? docIDs[i] : PostingsCursor.NO_MORE_DOCS;
+        }
+
+        public int tf() {
+            return tfs[i];
+        }
+
+        public int position( int k ) {
+            return positions[posStart[i] + k];
+        }
+
+        public int size() {
+            return n;
+        }
+
+        public long touched() {
+            return touched;
+        }
+    }
+}
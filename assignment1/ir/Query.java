@@ -52,6 +52,12 @@ public class Query {
      *  (only used in assignment 3).
      */
     double beta = 1 - alpha;
+
+    /**
+     *  The number of other tokens allowed between consecutive terms of a
+     *  phrase query; 0 means an exact phrase. Set by a "near/k" token.
+     */
+    int slop = 0;
     
     
     /**
@@ -62,15 +68,41 @@ public class Query {
     
     
     /**
-     *  Creates a new Query from a string of words
+     *  Creates a new Query from a string of words. A token "near/k" is not
+     *  a term, but lets phrase queries match with up to k tokens between
+     *  the terms.
      */
     public Query( String queryString  ) {
         StringTokenizer tok = new StringTokenizer( queryString );
         while ( tok.hasMoreTokens() ) {
-            queryterm.add( new QueryTerm(tok.nextToken(), 1.0) );
+            String token = tok.nextToken();
+            if ( token.toLowerCase().matches( "near/[0-9]+" )) {
+                slop = Integer.parseInt( token.substring( 5 ));
+                continue;
+            }
+            queryterm.add( new QueryTerm(token, 1.0) );
         }    
     }
     
+    /**
+     *  Returns what a user typed, normalized the way the index is: trimmed
+     *  and case-folded character by character, like the Tokenizer does.
+     */
+    public static String normalize( String text ) {
+        return text.trim().toLowerCase( Locale.ROOT );
+    }
+
+
+    /**
+     *  Creates a Query from what a user typed (see normalize). The GUI, the
+     *  server and batches all create their queries here, so that the same
+     *  query finds the same documents and the same cached result.
+     */
+    public static Query parse( String text ) {
+        return new Query( normalize( text ));
+    }
+
+
     public void add_term(String term){
         this.queryterm.add(new QueryTerm(term, 1.0));
     }
@@ -100,6 +132,7 @@ public class Query {
      */
     public Query copy() {
         Query queryCopy = new Query();
+        queryCopy.slop = slop;
         for ( QueryTerm t : queryterm ) {
             queryCopy.queryterm.add( new QueryTerm(t.term, t.weight) );
         }
@@ -132,19 +165,19 @@ public class Query {
             String term = this.queryterm.get(i).term;
 
             PostingsList list = engine.index.getPostings(term);
-            for(PostingsEntry entry: list.get_list()){
-                if(!occurences.containsKey(entry.docID)) occurences.put(entry.docID,new HashMap<String,Integer>());
-                if(!occurences.get(entry.docID).containsKey(term)) occurences.get(entry.docID).put(term, 1);
-                else occurences.get(entry.docID).put(term, occurences.get(entry.docID).get(term)+1);
+            for(int j=0;j<list.size();j++){
+                int docID = list.docID(j);
+                if(!occurences.containsKey(docID)) occurences.put(docID,new HashMap<String,Integer>());
+                occurences.get(docID).put(term, list.tf(j));
             }
         }
 
         HashMap<String, Double> term_weight_map = new HashMap<String, Double>();
         for(int i=0;i<10;i++){
             if(docIsRelevant[i]){
-                int docID = results.get(i).docID;
+                int docID = results.docID(i);
                 HashMap<String, Integer> term_tf_map = occurences.get(docID);
-                int docLength = Index.docLengths.get(docID);
+                int docLength = engine.index.getDocLength(docID);
                 for (Map.Entry<String, Integer> tf : term_tf_map.entrySet()) {
                     String term = tf.getKey();
                     double weight;
@@ -0,0 +1,193 @@
+/*
+ *   This file is part of the computer assignment for the
+ *   Information Retrieval course at KTH.
+ */
+
+package ir;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeSet;
+
+
+/**
+ *   Remembers the results of recent queries.
+ *
+ *   A result is found by a key made from the normalized query (see key())
+ *   and the types of the search. The least recently used results are
+ *   evicted when there are more than <code>max_entries</code> of them or
+ *   their estimated size exceeds <code>max_bytes</code>.
+ *
+ *   Every result is stored with the version of the index it was computed
+ *   from (see Index.getVersion). When the index gets a newer version, all
+ *   results are dropped.
+ *
+ *   The cached lists are shared with the callers, who must not modify them.
+ */
+public class QueryCache {
+
+    /** The default bounds of the cache. */
+    public static final int DEFAULT_MAX_ENTRIES = 1024;
+    public static final long DEFAULT_MAX_BYTES = 32L << 20;
+
+    /** The results, least recently used first. */
+    private final LinkedHashMap<String,PostingsList> entries = new LinkedHashMap<String,PostingsList>( 16, 0.75f, true );
+
+    /** The bounds on the number and estimated size of the results. */
+    private final int max_entries;
+    private final long max_bytes;
+
+    /** The estimated size of the cached results. */
+    private long bytes = 0;
+
+    /** The version of the index that the cached results were computed from. */
+    private long version = 0;
+
+    /** Statistics. */
+    private long hits = 0, misses = 0, evictions = 0, invalidations = 0;
+
+
+    public QueryCache( int max_entries, long max_bytes ) {
+        this.max_entries = max_entries;
+        this.max_bytes = max_bytes;
+    }
+
+
+    /**
+     *  Returns the key of a search. The terms of intersection queries are
+     *  sorted and duplicates removed, since their order does not matter;
+     *  the ranking and normalization types are only part of the key of
+     *  ranked queries. The weights of the terms are left out, since no
+     *  ranking reads them. A k of -1 stands for all results.
+     */
+    public static String key( Query query, QueryType queryType, RankingType rankingType, NormalizationType normalizationType, int k ) {
+        StringBuilder key = new StringBuilder();
+        key.append( queryType );
+        if ( queryType == QueryType.RANKED_QUERY ) {
+            key.append( ' ' ).append( rankingType ).append( ' ' ).append( normalizationType );
+        }
+        if ( queryType == QueryType.PHRASE_QUERY ) {
+            key.append( " near/" ).append( query.slop );
+        }
+        key.append( ' ' ).append( k ).append( ':' );
+        Iterable<String> terms;
+        if ( queryType == QueryType.INTERSECTION_QUERY ) {
+            TreeSet<String> sorted = new TreeSet<String>();
+            for ( Query.QueryTerm t : query.queryterm ) {
+                sorted.add( t.term );
+            }
+            terms = sorted;
+        } else {
+            ArrayList<String> inOrder = new ArrayList<String>();
+            for ( Query.QueryTerm t : query.queryterm ) {
+                inOrder.add( t.term );
+            }
+            terms = inOrder;
+        }
+        for ( String term : terms ) {
+            key.append( ' ' ).append( term );
+        }
+        return key.toString();
+    }
+
+
+    /**
+     *  Returns the cached result of a search on the given version of the
+     *  index, or null if there is none. A search on an older version than
+     *  the cached results gets none of them.
+     */
+    public synchronized PostingsList get( String key, long version ) {
+        invalidate( version );
+        PostingsList result = version == this.version ? entries.get( key ) : null;
+        if ( result == null ) {
+            misses++;
+        } else {
+            hits++;
+        }
+        return result;
+    }
+
+
+    /**
+     *  Caches the result of a search on the given version of the index,
+     *  unless the index has changed since or the result is too large.
+     */
+    public synchronized void put( String key, PostingsList result, long version ) {
+        invalidate( version );
+        long size = sizeOf( key, result );
+        if ( version != this.version || size > max_bytes ) {
+            return;
+        }
+        PostingsList old = entries.put( key, result );
+        if ( old != null ) {
+            bytes -= sizeOf( key, old );
+        }
+        bytes += size;
+        Iterator<Map.Entry<String,PostingsList>> eldest = entries.entrySet().iterator();
+        while ( entries.size() > max_entries || bytes > max_bytes ) {
+            Map.Entry<String,PostingsList> entry = eldest.next();
+            bytes -= sizeOf( entry.getKey(), entry.getValue() );
+            eldest.remove();
+            evictions++;
+        }
+    }
+
+
+    /** Drops all results. */
+    public synchronized void clear() {
+        entries.clear();
+        bytes = 0;
+    }
+
+
+    /** Drops all results if they were computed from an older version of the index. */
+    private void invalidate( long version ) {
+        if ( version > this.version ) {
+            if ( !entries.isEmpty() ) {
+                invalidations++;
+            }
+            clear();
+            this.version = version;
+        }
+    }
+
+
+    /** Returns an estimate of the number of bytes used by a cached result. */
+    static long sizeOf( String key, PostingsList result ) {
+        // The entry and the key, and the docID, tf, score and position
+        // start of every document
+        return 96 + 2L * key.length() + 20L * result.size();
+    }
+
+
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    public synchronized long getMisses() {
+        return misses;
+    }
+
+    public synchronized long getEvictions() {
+        return evictions;
+    }
+
+    public synchronized long getInvalidations() {
+        return invalidations;
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+
+    @Override
+    public synchronized String toString() {
+        long lookups = hits + misses;
+        return "query cache: " + entries.size() + " results (" + (bytes >> 10) + " KB), " +
+            hits + " hits, " + misses + " misses (" + (lookups == 0 ? 0 : 100 * hits / lookups) + "% hit rate), " +
+            evictions + " evictions, " + invalidations + " invalidations";
+    }
+}
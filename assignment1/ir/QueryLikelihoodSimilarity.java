@@ -0,0 +1,59 @@
+/*
+ *   This file is part of the computer assignment for the
+ *   Information Retrieval course at KTH.
+ */
+
+package ir;
+
+
+/**
+ *   Query likelihood with Dirichlet smoothing: documents are ranked by the
+ *   log probability of the query under a document language model
+ *
+ *     P(t|d) = (tf + mu * P(t|C)) / (length + mu)
+ *
+ *   where P(t|C) is the term's share of all tokens in the collection.
+ *   Leaving out what is the same for all documents, a term in the document
+ *   adds ln(1 + tf / (mu * P(t|C))), and every document gets
+ *   n * ln(mu / (length + mu)) for the n query terms, repeated ones and
+ *   ones not in the collection included. Lengths are taken from the
+ *   one-byte norms.
+ */
+public class QueryLikelihoodSimilarity implements Similarity {
+
+    /** The smoothing parameter. */
+    public static final double MU = 2000;
+
+    private IndexReader index;
+
+    /** The number of tokens in the collection. */
+    private double total_length;
+
+
+    public QueryLikelihoodSimilarity( IndexReader index ) {
+        this.index = index;
+        total_length = Math.max( 1, index.getTotalLength() );
+    }
+
+    /** The weight is mu * P(t|C). */
+    public double termWeight( String term, int df ) {
+        return MU * Math.max( 1, index.getCollectionFrequency( term )) / total_length;
+    }
+
+    public double length( int docID ) {
+        return index.getNorm( docID );
+    }
+
+    public double score( double weight, int tf, double length ) {
+        return Math.log( 1 + tf / weight );
+    }
+
+    /** The score grows without bound with tf. */
+    public double maxScore( String term, double weight ) {
+        return Double.POSITIVE_INFINITY;
+    }
+
+    public double documentScore( int queryLength, double length ) {
+        return queryLength * Math.log( MU / (length + MU) );
+    }
+}
@@ -12,5 +12,5 @@ package ir;
  *  the course. 
  */
 public enum RankingType {
-    TF_IDF, PAGERANK, COMBINATION, HITS
+    TF_IDF, PAGERANK, COMBINATION, HITS, BM25, QUERY_LIKELIHOOD
 }
\ No newline at end of file
@@ -74,6 +74,8 @@ public class SearchGUI extends JFrame {
     JRadioButtonMenuItem pagerankItem = new JRadioButtonMenuItem( "PageRank" );
     JRadioButtonMenuItem combinationItem = new JRadioButtonMenuItem( "Combination" );
     JRadioButtonMenuItem HITSItem = new JRadioButtonMenuItem( "HITS" );
+    JRadioButtonMenuItem bm25Item = new JRadioButtonMenuItem( "BM25" );
+    JRadioButtonMenuItem queryLikelihoodItem = new JRadioButtonMenuItem( "Query likelihood" );
     JRadioButtonMenuItem numberOfWordsItem = new JRadioButtonMenuItem( "Number of words" );
     JRadioButtonMenuItem euclideanLengthItem = new JRadioButtonMenuItem( "Euclidean length" );
     ButtonGroup queries = new ButtonGroup();
@@ -116,6 +118,8 @@ public class SearchGUI extends JFrame {
         rankingMenu.add( pagerankItem );
         rankingMenu.add( combinationItem );
         rankingMenu.add( HITSItem );
+        rankingMenu.add( bm25Item );
+        rankingMenu.add( queryLikelihoodItem );
         normalizationMenu.add(numberOfWordsItem);
         normalizationMenu.add(euclideanLengthItem);
         queries.add( intersectionItem );
@@ -125,6 +129,8 @@ public class SearchGUI extends JFrame {
         ranking.add( pagerankItem );
         ranking.add( combinationItem );
         ranking.add( HITSItem );
+        ranking.add( bm25Item );
+        ranking.add( queryLikelihoodItem );
         normalization.add(numberOfWordsItem);
         normalization.add(euclideanLengthItem);
         intersectionItem.setSelected( true );
@@ -160,8 +166,7 @@ public class SearchGUI extends JFrame {
                 // Empty the results window
                 displayInfoText( " " );
                 // Turn the search string into a Query
-                String queryString = queryWindow.getText().toLowerCase().trim();
-                query = new Query( queryString );
+                query = Query.parse( queryWindow.getText() );
                 // Take relevance feedback from the user into account (assignment 3)
                 // Check which documents the user has marked as relevant.
                 if ( box != null ) {
@@ -173,13 +178,17 @@ public class SearchGUI extends JFrame {
                     // query = engine.kgIndex.getWordofWildcard(query); // added here
                     // query.relevanceFeedback( results, relevant, engine );
                 }
-                // Search and print results. Access to the index is synchronized since
-                // we don't want to search at the same time we're indexing new files
-                // (this might corrupt the index).
+                // Search and print results. Searches read a snapshot of the index
+                // and need no lock, but wait until an index that is built in
+                // memory is done.
                 long startTime = System.currentTimeMillis();
-                synchronized ( engine.indexLock ) {
-                    results = engine.searcher.search( query, queryType, rankingType, normType );
+                try {
+                    engine.awaitIndex();
+                } catch ( InterruptedException ex ) {
+                    Thread.currentThread().interrupt();
+                    return;
                 }
+                results = engine.searcher.search( query, queryType, rankingType, normType );
                 long elapsedTime = System.currentTimeMillis() - startTime;
                 // Display the first few results + a button to see all results.
                 //
@@ -217,6 +226,9 @@ public class SearchGUI extends JFrame {
 
         Action quit = new AbstractAction() {
             public void actionPerformed( ActionEvent e ) {
+                if ( engine.searcher.cache != null ) {
+                    System.err.println( engine.searcher.cache );
+                }
                 System.exit( 0 );
             }
             };
@@ -274,6 +286,20 @@ public class SearchGUI extends JFrame {
             };
         HITSItem.addActionListener( setHITSRanking );
 
+        Action setBM25Ranking = new AbstractAction() {
+            public void actionPerformed( ActionEvent e ) {
+                rankingType = RankingType.BM25;
+            }
+            };
+        bm25Item.addActionListener( setBM25Ranking );
+
+        Action setQueryLikelihoodRanking = new AbstractAction() {
+            public void actionPerformed( ActionEvent e ) {
+                rankingType = RankingType.QUERY_LIKELIHOOD;
+            }
+            };
+        queryLikelihoodItem.addActionListener( setQueryLikelihoodRanking );
+
 
         Action setNumberOfWordsNormalization = new AbstractAction() {
             public void actionPerformed( ActionEvent e ) {
@@ -317,9 +343,9 @@ public class SearchGUI extends JFrame {
         box = new JCheckBox[maxResultsToDisplay];
         int i;
         for ( i=0; i<results.size() && i<maxResultsToDisplay; i++ ) {
-            String description = i + ". " + displayableFileName( engine.index.docNames.get( results.get(i).docID ));
+            String description = i + ". " + displayableFileName( engine.index.getDocName( results.docID(i) ));
             if ( queryType == QueryType.RANKED_QUERY ) {
-                description += "   " + String.format( "%.5f", results.get(i).score );
+                description += "   " + String.format( "%.5f", results.score(i) );
             }
             box[i] = new JCheckBox();
             box[i].setSelected( false );
@@ -0,0 +1,397 @@
+/*
+ *   This file is part of the computer assignment for the
+ *   Information Retrieval course at KTH.
+ */
+
+package ir;
+
+import java.io.*;
+import java.lang.reflect.Method;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+
+/**
+ *   Serves searches over HTTP, without the GUI (see the -server option of
+ *   Engine). The server only listens on the loopback interface, and answers
+ *
+ *     GET /search?q=...&amp;type=ranked&amp;rank=tf_idf&amp;norm=number_of_words&amp;k=10
+ *     GET /spell?q=...&amp;limit=10
+ *     GET /wildcard?q=...
+ *     GET /health
+ *
+ *   with JSON. The type of a search is intersection, phrase or ranked, and
+ *   rank and norm name a RankingType and a NormalizationType, in any case.
+ *   A search returns its first k results: DEFAULT_K without k, and at most
+ *   MAX_K. Queries are normalized like those of the GUI (see Query.parse).
+ *
+ *   Every request runs on a thread of its own: a virtual thread if the JVM
+ *   has them (Java 21 and later), and a pooled platform thread otherwise.
+ *   At most <code>max_running</code> requests are evaluated at once, and at
+ *   most <code>max_queued</code> more wait for their turn. Further requests
+ *   are refused at once with 503, so that a load balancer can send them
+ *   elsewhere instead of letting the queue grow.
+ */
+public class SearchServer {
+
+    /** The default number of requests waiting to be evaluated. */
+    public static final int DEFAULT_MAX_QUEUED = 64;
+
+    /** The number of results of a search without k, and the largest k. */
+    public static final int DEFAULT_K = 10, MAX_K = 1000;
+
+    /** The engine whose searcher, spell checker and k-gram index are used. */
+    private final Engine engine;
+
+    private final HttpServer server;
+
+    /** Runs the requests. */
+    private final ExecutorService executor;
+
+    /** Permits for the requests admitted (running or waiting), and for those running. */
+    private final Semaphore admitted, running;
+
+    /** The number of requests that may be admitted at once. */
+    private final int max_admitted;
+
+    /**
+     *  The intersection buffers of the searches not running. A request
+     *  thread lives for one request only, so the buffers are handed from
+     *  one request to the next; there are at most as many as there are
+     *  searches running at once.
+     */
+    private final Queue<Intersection> intersections = new ConcurrentLinkedQueue<Intersection>();
+
+    /** Statistics. */
+    private final AtomicLong served = new AtomicLong(), refused = new AtomicLong(), failed = new AtomicLong();
+
+
+    /**
+     *  A request handler, which returns the JSON body of the response. It
+     *  throws IllegalArgumentException if the request is malformed.
+     */
+    private interface Handler {
+        String handle( Map<String,String> params ) throws Exception;
+    }
+
+
+    /**
+     *  Creates a server on a port of the loopback interface. It does not
+     *  accept requests until it is started.
+     */
+    public SearchServer( Engine engine, int port, int max_running, int max_queued ) throws IOException {
+        this.engine = engine;
+        this.max_admitted = max_running + max_queued;
+        this.admitted = new Semaphore( max_admitted );
+        this.running = new Semaphore( max_running );
+        this.executor = newExecutor();
+        server = HttpServer.create( new InetSocketAddress( InetAddress.getLoopbackAddress(), port ), max_queued );
+        server.setExecutor( executor );
+        server.createContext( "/search", exchange -> serve( exchange, this::search ));
+        server.createContext( "/spell", exchange -> serve( exchange, this::spell ));
+        server.createContext( "/wildcard", exchange -> serve( exchange, this::wildcard ));
+        server.createContext( "/health", this::health );
+    }
+
+
+    /**
+     *  Returns an executor starting a virtual thread per task, or a pool of
+     *  platform threads if the JVM has no virtual threads. The admission
+     *  limit bounds the number of threads of the pool.
+     */
+    static ExecutorService newExecutor() {
+        try {
+            Method virtual = Executors.class.getMethod( "newVirtualThreadPerTaskExecutor" );
+            return (ExecutorService)virtual.invoke( null );
+        } catch ( ReflectiveOperationException e ) {
+            return Executors.newCachedThreadPool();
+        }
+    }
+
+
+    public void start() {
+        server.start();
+        System.err.println( "Serving searches on http://" + server.getAddress().getHostString() + ":" + server.getAddress().getPort() + "/" );
+    }
+
+
+    /** Stops accepting requests, and waits at most a second for those being served. */
+    public void stop() {
+        server.stop( 1 );
+        executor.shutdown();
+    }
+
+
+    // ==================================================================
+
+
+    /**
+     *  Admits a request if there is room in the queue, waits for its turn,
+     *  and answers it with the JSON returned by the handler.
+     */
+    private void serve( HttpExchange exchange, Handler handler ) throws IOException {
+        try {
+            if ( !"GET".equals( exchange.getRequestMethod() )) {
+                respond( exchange, 405, error( "only GET is supported" ));
+                return;
+            }
+            if ( !admitted.tryAcquire() ) {
+                refused.incrementAndGet();
+                exchange.getResponseHeaders().set( "Retry-After", "1" );
+                respond( exchange, 503, error( "too many requests" ));
+                return;
+            }
+            try {
+                running.acquire();
+                try {
+                    engine.awaitIndex();
+                    String body = handler.handle( parseQuery( exchange.getRequestURI() ));
+                    served.incrementAndGet();
+                    respond( exchange, 200, body );
+                } finally {
+                    running.release();
+                }
+            } finally {
+                admitted.release();
+            }
+        } catch ( IllegalArgumentException e ) {
+            respond( exchange, 400, error( e.getMessage() ));
+        } catch ( InterruptedException e ) {
+            Thread.currentThread().interrupt();
+            respond( exchange, 503, error( "interrupted" ));
+        } catch ( Exception e ) {
+            failed.incrementAndGet();
+            e.printStackTrace();
+            respond( exchange, 500, error( String.valueOf( e )));
+        } finally {
+            exchange.close();
+        }
+    }
+
+
+    /** Sends a JSON response. */
+    private static void respond( HttpExchange exchange, int status, String body ) throws IOException {
+        byte[] bytes = body.getBytes( StandardCharsets.UTF_8 );
+        exchange.getResponseHeaders().set( "Content-Type", "application/json; charset=utf-8" );
+        exchange.sendResponseHeaders( status, bytes.length );
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write( bytes );
+        }
+    }
+
+
+    // ==================================================================
+
+
+    /**
+     *  Searches for the first k results of the query q, and returns their
+     *  number, names and scores.
+     */
+    private String search( Map<String,String> params ) {
+        Query query = Query.parse( required( params, "q" ));
+        QueryType queryType = parse( QueryType.class, params.getOrDefault( "type", "ranked" ), "_QUERY" );
+        RankingType rankingType = parse( RankingType.class, params.getOrDefault( "rank", "tf_idf" ), "" );
+        NormalizationType normType = parse( NormalizationType.class, params.getOrDefault( "norm", "number_of_words" ), "" );
+        int k = intParam( params, "k", DEFAULT_K );
+        if ( k < 1 || k > MAX_K ) {
+            throw new IllegalArgumentException( "k must be between 1 and " + MAX_K );
+        }
+        Intersection intersection = intersections.poll();
+        if ( intersection == null ) {
+            intersection = new Intersection();
+        }
+        long startTime = System.nanoTime();
+        PostingsList results;
+        try {
+            results = engine.searcher.search( query, queryType, rankingType, normType, k, intersection );
+        } finally {
+            intersections.add( intersection );
+        }
+        long elapsed = System.nanoTime() - startTime;
+        int total = results == null ? 0 : results.size();
+        int shown = Math.min( k, total );
+        StringBuilder json = new StringBuilder();
+        json.append( "{\"query\":" ).append( quote( params.get( "q" )));
+        json.append( ",\"type\":" ).append( quote( queryType.toString() ));
+        json.append( ",\"total\":" ).append( total );
+        json.append( ",\"ms\":" ).append( String.format( Locale.ROOT, "%.3f", elapsed / 1e6 ));
+        json.append( ",\"results\":[" );
+        for ( int i=0; i<shown; i++ ) {
+            int docID = results.docID( i );
+            if ( i > 0 ) json.append( ',' );
+            json.append( "{\"docID\":" ).append( docID );
+            json.append( ",\"name\":" ).append( quote( engine.index.getDocName( docID )));
+            if ( queryType == QueryType.RANKED_QUERY ) {
+                json.append( ",\"score\":" ).append( number( results.score( i )));
+            }
+            json.append( '}' );
+        }
+        return json.append( "]}" ).toString();
+    }
+
+
+    /**
+     *  Returns at most <code>limit</code> spelling corrections of the query q,
+     *  best first.
+     */
+    private String spell( Map<String,String> params ) {
+        Query query = Query.parse( required( params, "q" ));
+        int limit = intParam( params, "limit", 10 );
+        String[] corrections = engine.speller == null ? null : engine.speller.check( query, limit );
+        StringBuilder json = new StringBuilder( "{\"query\":" ).append( quote( params.get( "q" )));
+        json.append( ",\"corrections\":[" );
+        if ( corrections != null ) {
+            for ( int i=0; i<corrections.length; i++ ) {
+                if ( i > 0 ) json.append( ',' );
+                json.append( quote( corrections[i] ));
+            }
+        }
+        return json.append( "]}" ).toString();
+    }
+
+
+    /**
+     *  Returns the terms of the index that match the wildcard query q, such
+     *  as "re*ve".
+     */
+    private String wildcard( Map<String,String> params ) {
+        String term = Query.normalize( required( params, "q" ));
+        if ( term.indexOf( '*' ) < 0 ) {
+            throw new IllegalArgumentException( "q has no wildcard" );
+        }
+        Query expansion = engine.kgIndex.expand_query( term );
+        StringBuilder json = new StringBuilder( "{\"query\":" ).append( quote( term ));
+        json.append( ",\"terms\":[" );
+        for ( int i=0; i<expansion.queryterm.size(); i++ ) {
+            if ( i > 0 ) json.append( ',' );
+            json.append( quote( expansion.queryterm.get( i ).term ));
+        }
+        return json.append( "]}" ).toString();
+    }
+
+
+    /**
+     *  Tells a load balancer whether the index can be searched yet. Health
+     *  checks are never queued.
+     */
+    private void health( HttpExchange exchange ) throws IOException {
+        try {
+            boolean ready = engine.indexReady.getCount() == 0;
+            String body = "{\"status\":" + quote( ready ? "ok" : "indexing" ) +
+                ",\"docs\":" + (ready ? engine.index.getNumberOfDocs() : 0) +
+                ",\"admitted\":" + (max_admitted - admitted.availablePermits()) +
+                ",\"served\":" + served.get() + ",\"refused\":" + refused.get() + ",\"failed\":" + failed.get() + "}";
+            respond( exchange, ready ? 200 : 503, body );
+        } finally {
+            exchange.close();
+        }
+    }
+
+
+    // ==================================================================
+
+
+    /** Decodes the parameters of a query string. */
+    static Map<String,String> parseQuery( URI uri ) {
+        HashMap<String,String> params = new HashMap<String,String>();
+        String query = uri.getRawQuery();
+        if ( query == null ) {
+            return params;
+        }
+        for ( String pair : query.split( "&" )) {
+            int eq = pair.indexOf( '=' );
+            String name = eq < 0 ? pair : pair.substring( 0, eq );
+            String value = eq < 0 ? "" : pair.substring( eq + 1 );
+            params.put( URLDecoder.decode( name, StandardCharsets.UTF_8 ), URLDecoder.decode( value, StandardCharsets.UTF_8 ));
+        }
+        return params;
+    }
+
+
+    private static String required( Map<String,String> params, String name ) {
+        String value = params.get( name );
+        if ( value == null || value.isEmpty() ) {
+            throw new IllegalArgumentException( "missing parameter " + name );
+        }
+        return value;
+    }
+
+
+    private static int intParam( Map<String,String> params, String name, int defaultValue ) {
+        String value = params.get( name );
+        if ( value == null ) {
+            return defaultValue;
+        }
+        try {
+            return Integer.parseInt( value );
+        } catch ( NumberFormatException e ) {
+            throw new IllegalArgumentException( name + " is not a number: " + value );
+        }
+    }
+
+
+    /**
+     *  Returns the constant of an enum named by a parameter, in any case
+     *  and with or without the given suffix (so "ranked" and "RANKED_QUERY"
+     *  both name QueryType.RANKED_QUERY).
+     */
+    static <E extends Enum<E>> E parse( Class<E> type, String value, String suffix ) {
+        String name = value.toUpperCase( Locale.ROOT ).replace( '-', '_' );
+        for ( E constant : type.getEnumConstants() ) {
+            if ( constant.name().equals( name ) || constant.name().equals( name + suffix )) {
+                return constant;
+            }
+        }
+        throw new IllegalArgumentException( "unknown " + type.getSimpleName() + ": " + value );
+    }
+
+
+    /** Returns a JSON error object. */
+    private static String error( String message ) {
+        return "{\"error\":" + quote( message ) + "}";
+    }
+
+
+    /** Returns a number as JSON, which has no infinities or NaN. */
+    private static String number( double x ) {
+        return Double.isNaN( x ) || Double.isInfinite( x ) ? "null" : Double.toString( x );
+    }
+
+
+    /** Returns a string as a quoted JSON string, or null. */
+    static String quote( String s ) {
+        if ( s == null ) {
+            return "null";
+        }
+        StringBuilder json = new StringBuilder( s.length() + 2 ).append( '"' );
+        for ( int i=0; i<s.length(); i++ ) {
+            char c = s.charAt( i );
+            switch ( c ) {
+            case '"': json.append( "\\\"" ); break;
+            case '\\': json.append( "\\\\" ); break;
+            case '\n': json.append( "\\n" ); break;
+            case '\r': json.append( "\\r" ); break;
+            case '\t': json.append( "\\t" ); break;
+            default:
+                if ( c < 0x20 ) {
+                    json.append( String.format( "\\u%04x", (int)c ));
+                } else {
+                    json.append( c );
+                }
+            }
+        }
+        return json.append( '"' ).toString();
+    }
+}
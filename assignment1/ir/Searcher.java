@@ -8,6 +8,8 @@
 package ir;
 
 import java.util.*;
+import java.util.concurrent.*;
+import java.util.function.*;
 import java.io.*;
 
 /**
@@ -49,9 +51,31 @@ public class Searcher {
 
     }
 
-    ArrayList<Document> docs = new ArrayList<Document>();
+    /** The score accumulators of ranked queries, one per searching thread. */
+    private final ThreadLocal<Accumulator> accumulators = ThreadLocal.withInitial(Accumulator::new);
+
+    /** The number of postings read by the last intersection, phrase or top-k query. */
+    volatile long postingsTouched = 0;
+
+    /** The number of documents scored by the last top-k query. */
+    volatile long documentsScored = 0;
+
+    /** The smallest number of docIDs worth evaluating as a range of their own. */
+    static final int MIN_PARTITION_SIZE = 1024;
+
+    /** The number of docID ranges a query is split into. With 1, queries are evaluated on the calling thread. */
+    int num_partitions = 1;
+
+    /** The threads evaluating the ranges of a query, if there are several. */
+    private ForkJoinPool pool = null;
 
-    Map<Integer, Double> docLengths = new HashMap<Integer, Double>();
+    /** The results of recent searches, or null if results are not cached. */
+    QueryCache cache = null;
+
+    /** The PageRank scores of the documents, relative to the working directory. */
+    static final String PAGERANK_FNAME = "ir/output.txt";
+
+    ArrayList<Document> docs = new ArrayList<Document>();
 
     /** Constructor */
     public Searcher(Index index, KGramIndex kgIndex) {
@@ -59,7 +83,7 @@ public class Searcher {
         this.kgIndex = kgIndex;
 
         try {
-            Scanner s = new Scanner(new File("/home/ali/Desktop/SE_IR/assignment1/ir/output.txt"));
+            Scanner s = new Scanner(new File(PAGERANK_FNAME));
 
             while (s.hasNext()) {
                 String[] temp = s.next().split(",");
@@ -69,165 +93,295 @@ public class Searcher {
         } catch (Exception e) {
             // TODO: handle exception
         }
+    }
 
-        try {
-            Scanner s = new Scanner(new File("/home/ali/Desktop/SE_IR/assignment1/ir/lengths.txt"));
-
-            while (s.hasNext()) {
-                String[] temp = s.next().split(":");
-                this.docLengths.put(Integer.parseInt(temp[0]), Double.parseDouble(temp[1]));
-            }
+    /**
+     * Splits intersection, phrase and ranked queries into as many ranges of
+     * docIDs, evaluated in parallel on a pool of as many threads.
+     */
+    public void setPartitions(int num_partitions) {
+        if (pool != null)
+            pool.shutdown();
+        this.num_partitions = Math.max(1, num_partitions);
+        pool = this.num_partitions > 1 ? new ForkJoinPool(this.num_partitions) : null;
+    }
 
-        } catch (Exception e) {
-            // TODO: handle exception
-        }
+    /**
+     * Caches the results of searches in the given cache, or stops caching
+     * them if it is null.
+     */
+    public void setCache(QueryCache cache) {
+        this.cache = cache;
     }
 
     /**
-     * Searches the index for postings matching the query.
+     * Searches the index for postings matching the query. The result may
+     * come from the cache, and must not be modified.
+     * 
+     * Every search reads one snapshot of the index (see Index.snapshot), so
+     * that an update committed meanwhile does not change what it sees.
      * 
      * @return A postings list representing the result of the query.
      */
     public PostingsList search(Query query, QueryType queryType, RankingType rankingType,
             NormalizationType normalizationType) {
+        return search(query, queryType, rankingType, normalizationType, -1, new Intersection());
+    }
+
+    /** Searches a snapshot of the index for postings matching the query. */
+    private PostingsList search(IndexReader index, Query query, QueryType queryType, RankingType rankingType,
+            NormalizationType normalizationType, Intersection intersection) {
+        return cached(index, query, queryType, rankingType, normalizationType, -1,
+                () -> search_uncached(index, query, queryType, rankingType, normalizationType, intersection));
+    }
+
+    private PostingsList search_uncached(IndexReader index, Query query, QueryType queryType, RankingType rankingType,
+            NormalizationType normalizationType, Intersection intersection) {
         //
         // REPLACE THE STATEMENT BELOW WITH YOUR CODE
         //
         if (query.queryterm.size() == 0)
             return null;
         else if (queryType == QueryType.INTERSECTION_QUERY) {
-            return this.search_by_intersection(query);
+            return this.search_by_intersection(index, query, intersection);
         } else if (queryType == QueryType.PHRASE_QUERY) {
-            return this.search_by_phrase(query);
+            return this.search_by_phrase(index, query, intersection);
         } else if (queryType == QueryType.RANKED_QUERY) {
             // query.relevanceFeedback(results, docIsRelevant, engine);
-            return this.search_by_rank(query, rankingType, normalizationType);
+            return this.search_by_rank(index, query, rankingType, normalizationType);
         } else { // one word query
-            PostingsList list = this.index.getPostings(query.queryterm.get(0).term);
-            ArrayList<Integer> docIDs = new ArrayList<Integer>();
+            PostingsList list = index.getPostings(query.queryterm.get(0).term);
             PostingsList result = new PostingsList();
 
-            for (int i = 0; i < list.size(); i++) {
-                int docID = list.get(i).docID;
-                if (!docIDs.contains(docID)) {
-                    result.insert(list.get(i));
-                    docIDs.add(docID);
-                }
-            }
+            for (int i = 0; i < list.size(); i++)
+                result.addDoc(list.docID(i));
             return result;
         }
     }
 
-    public PostingsList search_by_intersection(Query query) {
-        ArrayList<String> terms = new ArrayList<>();
-        int num_terms = query.queryterm.size();
-        for (int i = 0; i < num_terms; i++)
-            terms.add(query.queryterm.get(i).term);
-        ArrayList<ArrayList<PostingsEntry>> lists = new ArrayList<ArrayList<PostingsEntry>>();
-        for (String term : terms) {
-            try {
-                if (term.contains("*")) {
-                    Query expanded_term = kgIndex.expand_query(term);
-                    Set<Integer> docIDs = new HashSet<Integer>();
-                    for (int k = 0; k < expanded_term.size(); k++) {
-                        // print(expanded_term.queryterm.get(k).term);
-                        docIDs.addAll(index.getPostings(expanded_term.queryterm.get(k).term).get_IDs());
-                    }
-                    ArrayList<Integer> docIDsList = new ArrayList<Integer>(docIDs);
-                    Collections.sort(docIDsList);
-                    ArrayList<PostingsEntry> list = new ArrayList<PostingsEntry>();
-                    for (int id : docIDsList)
-                        list.add(new PostingsEntry(id));
-                    lists.add(list);
-                } else {
-                    ArrayList<PostingsEntry> list = index.getPostings(term).get_filtered_list();
-                    if (!list.isEmpty() && !lists.contains(list))
-                        lists.add(list);
-                }
-            } catch (Exception e) {
-                return null;
-            }
-        }
-        int num_lists = lists.size();
-        if (num_lists == 0)
-            return null;
-        // for(int i=0;i<num_lists;i++) print(lists.get(i).size());
+    /**
+     * Searches the index for the k best postings matching the query. Ranked
+     * queries scored by a Similarity are evaluated with pruning (see
+     * TopKRanker); the first k documents are the same as those of the full
+     * ranking.
+     * 
+     * @return A postings list with at most k documents, best first.
+     */
+    public PostingsList search(Query query, QueryType queryType, RankingType rankingType,
+            NormalizationType normalizationType, int k) {
+        return search(query, queryType, rankingType, normalizationType, k, new Intersection());
+    }
 
-        PostingsList answers = new PostingsList();
-        ArrayList<Integer> indexes = new ArrayList<>(Collections.nCopies(num_lists, 0));
-        ArrayList<Integer> list_sizes = new ArrayList<>();
-        for (ArrayList<PostingsEntry> l : lists)
-            list_sizes.add(l.size());
+    /**
+     * Searches the index for the k best postings matching the query, or for
+     * all of them if k is negative, like the methods above. Intersection
+     * and phrase queries find their documents in the given buffer, which a
+     * caller running one search after another can pass to all of them.
+     */
+    public PostingsList search(Query query, QueryType queryType, RankingType rankingType,
+            NormalizationType normalizationType, int k, Intersection intersection) {
+        IndexReader index = this.index.snapshot();
+        if (k < 0)
+            return this.search(index, query, queryType, rankingType, normalizationType, intersection);
+        Similarity similarity = this.similarity(index, rankingType, normalizationType);
+        if (query.queryterm.size() > 0 && queryType == QueryType.RANKED_QUERY && similarity != null)
+            return cached(index, query, queryType, rankingType, normalizationType, k,
+                    () -> this.get_top_ranked(index, query, similarity, k));
+        PostingsList result = this.search(index, query, queryType, rankingType, normalizationType, intersection);
+        if (result == null || result.size() <= k)
+            return result;
+        PostingsList top = new PostingsList();
+        for (int i = 0; i < k; i++)
+            top.addDoc(result.docID(i), result.score(i));
+        return top;
+    }
 
-        while (indexes.stream().allMatch(i -> i < list_sizes.get(indexes.indexOf(i)))) {
+    /**
+     * Returns the cached result of a search, or runs the search and caches
+     * its result. Results are cached with the version of the snapshot the
+     * search reads.
+     * 
+     * @param k The number of results, or -1 for all.
+     */
+    private PostingsList cached(IndexReader index, Query query, QueryType queryType, RankingType rankingType,
+            NormalizationType normalizationType, int k, Supplier<PostingsList> search) {
+        QueryCache cache = this.cache;
+        if (cache == null || query.queryterm.size() == 0)
+            return search.get();
+        String key = QueryCache.key(query, queryType, rankingType, normalizationType, k);
+        long version = index.getVersion();
+        PostingsList result = cache.get(key, version);
+        if (result == null) {
+            result = search.get();
+            if (result != null)
+                cache.put(key, result, version);
+        }
+        return result;
+    }
 
-            ArrayList<Integer> ids = new ArrayList<>();
-            for (int i = 0; i < num_lists; i++)
-                ids.add(lists.get(i).get(indexes.get(i)).docID);
+    public PostingsList search_by_intersection(Query query) {
+        return search_by_intersection(query, new Intersection());
+    }
 
-            if (ids.stream().distinct().count() <= 1) {
+    /** Runs an intersection query, reusing the given buffer (see search). */
+    public PostingsList search_by_intersection(Query query, Intersection intersection) {
+        return search_by_intersection(index.snapshot(), query, intersection);
+    }
 
-                answers.insert(lists.get(0).get(indexes.get(0)));
-                for (int i = 0; i < num_lists; i++)
-                    indexes.set(i, indexes.get(i) + 1);
+    private PostingsList search_by_intersection(IndexReader index, Query query, Intersection intersection) {
+        ArrayList<String> terms = new ArrayList<>();
+        int num_terms = query.queryterm.size();
+        for (int i = 0; i < num_terms; i++)
+            terms.add(query.queryterm.get(i).term);
+        ArrayList<PostingsCursor> cursors = new ArrayList<PostingsCursor>();
+        ArrayList<Supplier<PostingsCursor>> sources = new ArrayList<>();
+        for (String term : new LinkedHashSet<String>(terms)) {
+            if (term.contains("*")) {
+                PostingsList list = union_docs(index, kgIndex.expand_query(term));
+                if (list.size() == 0)
+                    return null;
+                cursors.add(list.cursor());
+                sources.add(list::cursor);
             } else {
-                int max = Collections.max(ids);
-                for (int i = 0; i < num_lists; i++) {
-                    int j = 0;
-                    while (j < list_sizes.get(i) && indexes.get(i) < list_sizes.get(i)
-                            && lists.get(i).get(indexes.get(i)).docID < max) {
-                        indexes.set(i, indexes.get(i) + 1);
-                        j++;
-                    }
+                PostingsCursor cursor = index.getCursor(term);
+                if (cursor == null)
+                    return null;
+                if (cursor.size() > 0) {
+                    cursors.add(cursor);
+                    sources.add(() -> index.getCursor(term));
                 }
             }
         }
+        if (cursors.isEmpty())
+            return null;
 
-        return answers;
+        return intersect(index, cursors.toArray(new PostingsCursor[0]), sources, -1, intersection);
     }
 
     public PostingsList search_by_phrase(Query query) {
+        return search_by_phrase(query, new Intersection());
+    }
 
-        PostingsList result = new PostingsList();
-
-        HashMap<Integer, ArrayList<Integer>> docIDs_offsets = new HashMap<Integer, ArrayList<Integer>>();
+    /** Runs a phrase query, reusing the given buffer (see search). */
+    public PostingsList search_by_phrase(Query query, Intersection intersection) {
+        return search_by_phrase(index.snapshot(), query, intersection);
+    }
 
+    private PostingsList search_by_phrase(IndexReader index, Query query, Intersection intersection) {
+        PostingsCursor[] cursors = new PostingsCursor[query.size()];
+        ArrayList<Supplier<PostingsCursor>> sources = new ArrayList<>();
         for (int i = 0; i < query.size(); i++) {
             String term = query.queryterm.get(i).term;
-
-            HashMap<Integer, ArrayList<Integer>> docID_offsets = new HashMap<Integer, ArrayList<Integer>>();
-            PostingsList plist = new PostingsList();
             if (term.contains("*")) {
-                Query expanded_query = kgIndex.expand_query(term);
-                for (int j = 0; j < expanded_query.size(); j++) {
-                    String term_new = expanded_query.queryterm.get(j).term;
-                    plist = index.getPostings(term_new);
-                    // write map between docID and offsets
-                    for(int k=0;k<plist.size();k++){
-                        PostingsEntry entry = plist.get(k);
-                        if(!docID_offsets.containsKey(entry.docID)) docID_offsets.put(entry.docID, new ArrayList<Integer>());
-                        docID_offsets.get(entry.docID).add(entry.offset);
-                    }
-                }
+                PostingsList list = union(index, kgIndex.expand_query(term));
+                cursors[i] = list.cursor();
+                sources.add(list::cursor);
             } else {
-                plist = index.getPostings(term);
-                // write map between docID and offsets
-                for(int k=0;k<plist.size();k++){
-                    PostingsEntry entry = plist.get(k);
-                    if(!docID_offsets.containsKey(entry.docID)) docID_offsets.put(entry.docID, new ArrayList<Integer>());
-                    docID_offsets.get(entry.docID).add(entry.offset);
-                }
+                cursors[i] = index.getCursor(term);
+                sources.add(() -> index.getCursor(term));
             }
-
-            if (docIDs_offsets.size() == 0) docIDs_offsets = docID_offsets;
-            else docIDs_offsets = this.intersect(docIDs_offsets, docID_offsets);
+            if (cursors[i] == null)
+                return null;
         }
 
-        for(int docID: docIDs_offsets.keySet()) result.insert(new PostingsEntry(docID));
+        // Find the documents with all terms first, and only merge the
+        // positions of the terms in those documents
+        return intersect(index, cursors, sources, query.slop, intersection);
+    }
 
+    /**
+     * Intersects the lists of the cursors, range by range, keeping only the
+     * documents where the terms form a phrase if slop is not negative.
+     * 
+     * @param cursors The cursors of the terms, used for the first range.
+     * @param sources Open new cursors of the terms, for the other ranges.
+     * @param intersection The buffer of the first range; the others get
+     *                     buffers of their own.
+     */
+    private PostingsList intersect(IndexReader index, PostingsCursor[] cursors, List<Supplier<PostingsCursor>> sources, int slop,
+            Intersection intersection) {
+        int[] bounds = ranges(index);
+        PostingsCursor[][] parts = open(cursors, sources, bounds.length - 1);
+        List<PostingsList> found = evaluate(bounds, (p, from, to) -> {
+            PhraseMatcher matcher = slop >= 0 ? new PhraseMatcher(parts[p], slop) : null;
+            Intersection buffer = p == 0 ? intersection : new Intersection();
+            int n = buffer.intersect(parts[p], matcher == null ? null : matcher::matches, from, to);
+            PostingsList result = new PostingsList();
+            for (int i = 0; i < n; i++)
+                result.addDoc(buffer.docID(i));
+            return result;
+        });
+        if (found == null)
+            return null;
+        PostingsList result = found.get(0);
+        for (int p = 1; p < found.size(); p++)
+            result.addAll(found.get(p));
+        postingsTouched = touched(parts);
         return result;
     }
 
+    /**
+     * Returns the documents containing some of the terms of a query, without
+     * positions. The lists of the terms are merged through a heap of their
+     * cursors, ordered by docID.
+     */
+    private PostingsList union_docs(IndexReader index, Query terms) {
+        PriorityQueue<PostingsCursor> heap = new PriorityQueue<>(Math.max(1, terms.size()),
+                Comparator.comparingInt(PostingsCursor::docID));
+        for (int i = 0; i < terms.size(); i++) {
+            PostingsCursor cursor = index.getCursor(terms.queryterm.get(i).term);
+            if (cursor != null && cursor.nextDoc() != PostingsCursor.NO_MORE_DOCS)
+                heap.add(cursor);
+        }
+        PostingsList result = new PostingsList();
+        int last = -1;
+        while (!heap.isEmpty()) {
+            PostingsCursor cursor = heap.poll();
+            int doc = cursor.docID();
+            if (doc != last)
+                result.addDoc(doc);
+            last = doc;
+            if (cursor.nextDoc() != PostingsCursor.NO_MORE_DOCS)
+                heap.add(cursor);
+        }
+        return result;
+    }
+
+    /**
+     * Returns the union of the postings lists of the terms of a query, with
+     * the positions of all the terms in a document merged in order.
+     */
+    private PostingsList union(IndexReader index, Query terms) {
+        ArrayList<PostingsCursor> cursors = new ArrayList<PostingsCursor>();
+        for (int i = 0; i < terms.size(); i++) {
+            PostingsCursor cursor = index.getCursor(terms.queryterm.get(i).term);
+            if (cursor != null && cursor.nextDoc() != PostingsCursor.NO_MORE_DOCS)
+                cursors.add(cursor);
+        }
+        PostingsList result = new PostingsList();
+        int[] positions = new int[64];
+        while (true) {
+            int doc = PostingsCursor.NO_MORE_DOCS;
+            for (PostingsCursor cursor : cursors)
+                doc = Math.min(doc, cursor.docID());
+            if (doc == PostingsCursor.NO_MORE_DOCS)
+                return result;
+            int n = 0;
+            for (PostingsCursor cursor : cursors) {
+                if (cursor.docID() != doc)
+                    continue;
+                if (n + cursor.tf() > positions.length)
+                    positions = Arrays.copyOf(positions, 2 * (n + cursor.tf()));
+                for (int k = 0; k < cursor.tf(); k++)
+                    positions[n++] = cursor.position(k);
+                cursor.nextDoc();
+            }
+            Arrays.sort(positions, 0, n);
+            for (int k = 0; k < n; k++)
+                result.insert(doc, positions[k]);
+        }
+    }
+
 
         // ArrayList<String> terms = new ArrayList<>();
         // ArrayList<String> terms_big = new ArrayList<>();
@@ -411,42 +565,6 @@ public class Searcher {
      * return answers;
      */
 
-    public HashMap<Integer, ArrayList<Integer>> intersect(HashMap<Integer, ArrayList<Integer>> map_big, HashMap<Integer, ArrayList<Integer>> map_new) {
-
-        HashMap<Integer, ArrayList<Integer>> result = new HashMap<Integer, ArrayList<Integer>>();
-
-        if(map_big.size() < map_new.size()) {
-            for (Map.Entry<Integer, ArrayList<Integer>> entry : map_big.entrySet()) {
-                // add only the offsets of the docs whose ids are in the intersection
-                if (map_new.containsKey(entry.getKey())) {
-                    ArrayList<Integer> offsets = map_new.get(entry.getKey());
-                    // check sequential order
-                    for (int n = 0; n < offsets.size(); n++) {
-                        if (entry.getValue().contains(offsets.get(n) - 1)) {
-                            if(!result.containsKey(entry.getKey())) result.put(entry.getKey(), new ArrayList<Integer>());
-                            result.get(entry.getKey()).add(offsets.get(n));
-                        }
-                    }
-                }
-            }
-        } else {
-            for (Map.Entry<Integer, ArrayList<Integer>> entry : map_new.entrySet()) {
-                // add only the offsets of the docs whose ids are in the intersection
-                if (map_big.containsKey(entry.getKey())) {
-                    ArrayList<Integer> offsets = map_big.get(entry.getKey());
-                    // check sequential order
-                    for (int n = 0; n < offsets.size(); n++) {
-                        if (entry.getValue().contains(offsets.get(n) + 1)) {
-                            if(!result.containsKey(entry.getKey())) result.put(entry.getKey(), new ArrayList<Integer>());
-                            result.get(entry.getKey()).add(offsets.get(n) + 1);
-                        }
-                    }
-                }
-            }
-        }
-        return result;
-    }
-    
     public ArrayList<ArrayList<String>> generate(ArrayList<ArrayList<String>> sets) {
         ArrayList<ArrayList<String>> result = new ArrayList<>();
         int solutions = 1;
@@ -481,104 +599,275 @@ public class Searcher {
     }
 
     public PostingsList search_by_rank(Query query, RankingType rankingType, NormalizationType normalizationType) {
+        return search_by_rank(index.snapshot(), query, rankingType, normalizationType);
+    }
 
-        if (rankingType == RankingType.TF_IDF)
-            return this.get_result_tfidf(query, normalizationType);
+    private PostingsList search_by_rank(IndexReader index, Query query, RankingType rankingType, NormalizationType normalizationType) {
+
+        Similarity similarity = this.similarity(index, rankingType, normalizationType);
+        if (similarity != null)
+            return this.get_result_ranked(index, query, similarity);
         else if (rankingType == RankingType.PAGERANK)
-            return this.get_result_pagerank(query);
+            return this.get_result_pagerank(index, query);
         else if (rankingType == RankingType.COMBINATION)
-            return get_result_combined(query, normalizationType);
+            return get_result_combined(index, query, normalizationType);
         else
-            return get_HITS(query);
+            return get_HITS(index, query);
     }
 
-    public PostingsList get_result_tfidf(Query query, NormalizationType normalizationType) {
-
-        ArrayList<String> terms = new ArrayList<>();
-        int num_terms = query.queryterm.size();
-        for (int i = 0; i < num_terms; i++)
-            terms.add(query.queryterm.get(i).term);
-
-        PostingsList result = new PostingsList();
+    /**
+     * Returns the similarity of a ranking type that scores documents by
+     * their terms, or null for the link-based rankings. It reads the
+     * statistics of the given snapshot of the index.
+     */
+    public Similarity similarity(IndexReader index, RankingType rankingType, NormalizationType normalizationType) {
+        if (rankingType == RankingType.TF_IDF)
+            return new TfIdfSimilarity(index, normalizationType);
+        else if (rankingType == RankingType.BM25)
+            return new BM25Similarity(index);
+        else if (rankingType == RankingType.QUERY_LIKELIHOOD)
+            return new QueryLikelihoodSimilarity(index);
+        else
+            return null;
+    }
 
-        Map<String, Integer> docs_contain_term = new HashMap<String, Integer>();
-        Map<String, Map<Integer, Integer>> occurences = new HashMap<String, Map<Integer, Integer>>();
+    public PostingsList get_result_tfidf(Query query, NormalizationType normalizationType) {
+        return get_result_tfidf(index.snapshot(), query, normalizationType);
+    }
 
-        ArrayList<String> terms_new = new ArrayList<>();
+    private PostingsList get_result_tfidf(IndexReader index, Query query, NormalizationType normalizationType) {
+        return get_result_ranked(index, query, new TfIdfSimilarity(index, normalizationType));
+    }
 
-        for (String term : terms) {
+    /**
+     * Returns the distinct terms of a query, with wildcards expanded, in
+     * query order, with the number of times each of them occurs in the
+     * query. The counts add up to the length of the query.
+     */
+    private LinkedHashMap<String, Integer> term_counts(Query query) {
+        LinkedHashMap<String, Integer> terms = new LinkedHashMap<>();
+        for (int i = 0; i < query.queryterm.size(); i++) {
+            String term = query.queryterm.get(i).term;
             if (term.contains("*")) {
                 Query expanded_term = kgIndex.expand_query(term);
-                for (int k = 0; k < expanded_term.size(); k++) {
-                    String new_term = expanded_term.queryterm.get(k).term;
-                    PostingsList list = this.index.getPostings(new_term);
-                    docs_contain_term.put(new_term, list.get_filtered_list().size());
-                    // print(new_term+" has pl of length "+list.size());
-                    for (PostingsEntry entry : list.get_list()) {
-                        if (!occurences.containsKey(new_term))
-                            occurences.put(new_term, new HashMap<Integer, Integer>());
-                        if (!occurences.get(new_term).containsKey(entry.docID))
-                            occurences.get(new_term).put(entry.docID, 1);
-                        else
-                            occurences.get(new_term).put(entry.docID, occurences.get(new_term).get(entry.docID) + 1);
-                        if (!result.check_docID(entry.docID))
-                            result.insert(entry);
-                    }
-                    if (!terms_new.contains(new_term))
-                        terms_new.add(new_term);
-                }
+                for (int k = 0; k < expanded_term.size(); k++)
+                    terms.merge(expanded_term.queryterm.get(k).term, 1, Integer::sum);
             } else {
-                PostingsList list = this.index.getPostings(term);
-                docs_contain_term.put(term, list.get_filtered_list().size());
-                for (PostingsEntry entry : list.get_list()) {
-                    if (!occurences.containsKey(term))
-                        occurences.put(term, new HashMap<Integer, Integer>());
-                    if (!occurences.get(term).containsKey(entry.docID))
-                        occurences.get(term).put(entry.docID, 1);
-                    else
-                        occurences.get(term).put(entry.docID, occurences.get(term).get(entry.docID) + 1);
-                    if (!result.check_docID(entry.docID))
-                        result.insert(entry);
+                terms.merge(term, 1, Integer::sum);
+            }
+        }
+        return terms;
+    }
+
+    /** Returns the sum of the counts of the terms. */
+    private static int length(Map<String, Integer> term_counts) {
+        int length = 0;
+        for (int count : term_counts.values())
+            length += count;
+        return length;
+    }
+
+    /**
+     * Ranks all documents containing a query term. A term that occurs
+     * several times in the query adds its score as many times. Terms
+     * missing from the index add nothing, but count in the length of the
+     * query. The similarity must read the same snapshot of the index.
+     */
+    public PostingsList get_result_ranked(IndexReader index, Query query, Similarity similarity) {
+        ArrayList<PostingsCursor> cursors = new ArrayList<>();
+        ArrayList<Supplier<PostingsCursor>> sources = new ArrayList<>();
+        ArrayList<Double> weights = new ArrayList<>();
+        ArrayList<Integer> counts = new ArrayList<>();
+        LinkedHashMap<String, Integer> term_counts = term_counts(query);
+        for (Map.Entry<String, Integer> e : term_counts.entrySet()) {
+            String term = e.getKey();
+            PostingsCursor cursor = index.getCursor(term);
+            if (cursor == null)
+                continue;
+            cursors.add(cursor);
+            sources.add(() -> index.getCursor(term));
+            weights.add(similarity.termWeight(term, cursor.size()));
+            counts.add(e.getValue());
+        }
+        int num_terms = cursors.size();
+        int query_length = length(term_counts);
+
+        int[] bounds = ranges(index);
+        PostingsCursor[][] parts = open(cursors.toArray(new PostingsCursor[0]), sources, bounds.length - 1);
+        int[][] ends = new int[parts.length][num_terms];
+        List<PostingsList> found = evaluate(bounds, (p, from, to) -> {
+            // Term at a time: each postings list adds its contributions to
+            // the accumulators of its documents
+            Accumulator acc = accumulators.get();
+            acc.clear();
+            for (int t = 0; t < num_terms; t++) {
+                PostingsCursor cursor = parts[p][t];
+                double weight = weights.get(t);
+                int count = counts.get(t);
+                for (int docID = from > 0 ? cursor.advance(from) : cursor.nextDoc(); docID < to; docID = cursor.nextDoc()) {
+                    if (acc.touch(docID))
+                        acc.setLength(docID, similarity.length(docID));
+                    acc.add(docID, count * similarity.score(weight, cursor.tf(), acc.length(docID)));
                 }
-                if (!terms_new.contains(term))
-                    terms_new.add(term);
+                ends[p][t] = acc.size();
+            }
+            PostingsList result = new PostingsList();
+            for (int i = 0; i < acc.size(); i++) {
+                int docID = acc.docID(i);
+                result.addDoc(docID, acc.score(docID) + similarity.documentScore(query_length, acc.length(docID)));
+            }
+            acc.clear();
+            return result;
+        });
+        if (found == null)
+            return null;
+        postingsTouched = touched(parts);
+
+        // Put the documents in the order a single range would have met
+        // them, by their first term and then by docID, so that documents
+        // with equal scores keep that order
+        PostingsList result = new PostingsList();
+        for (int t = 0; t < num_terms; t++) {
+            for (int p = 0; p < found.size(); p++) {
+                PostingsList part = found.get(p);
+                for (int i = t > 0 ? ends[p][t - 1] : 0; i < ends[p][t]; i++)
+                    result.addDoc(part.docID(i), part.score(i));
             }
         }
 
-        int N = this.index.docNames.size();
+        result.sortByScore();
 
-        PostingsList result_new = new PostingsList();
+        return result;
+    }
 
-        for (PostingsEntry entry : result.get_list()) {
-            double score = 0.0;
-            for (String term : terms_new) {
-                if (occurences.get(term).containsKey(entry.docID)) {
-                    double tf_df = occurences.get(term).get(entry.docID);
-                    double df_t = docs_contain_term.get(term);
+    /**
+     * Returns the k documents with the highest scores, found with MaxScore
+     * pruning from per-term score bounds. They are the first k documents
+     * of get_result_ranked. With several partitions, every range of docIDs
+     * keeps its own k best, and those are merged. The similarity must read
+     * the same snapshot of the index.
+     */
+    public PostingsList get_top_ranked(IndexReader index, Query query, Similarity similarity, int k) {
+        ArrayList<PostingsCursor> cursors = new ArrayList<>();
+        ArrayList<Supplier<PostingsCursor>> sources = new ArrayList<>();
+        ArrayList<Double> weights = new ArrayList<>();
+        ArrayList<Integer> counts = new ArrayList<>();
+        ArrayList<Double> bounds = new ArrayList<>();
+        LinkedHashMap<String, Integer> term_counts = term_counts(query);
+        for (Map.Entry<String, Integer> e : term_counts.entrySet()) {
+            String term = e.getKey();
+            PostingsCursor cursor = index.getCursor(term);
+            if (cursor == null)
+                continue;
+            double weight = similarity.termWeight(term, cursor.size());
+            cursors.add(cursor);
+            sources.add(() -> index.getCursor(term));
+            weights.add(weight);
+            counts.add(e.getValue());
+            bounds.add(e.getValue() * similarity.maxScore(term, weight));
+        }
+        int query_length = length(term_counts);
+
+        double[] weight = weights.stream().mapToDouble(Double::doubleValue).toArray();
+        int[] count = counts.stream().mapToInt(Integer::intValue).toArray();
+        double[] bound = bounds.stream().mapToDouble(Double::doubleValue).toArray();
+        int[] ranges = ranges(index);
+        PostingsCursor[][] parts = open(cursors.toArray(new PostingsCursor[0]), sources, ranges.length - 1);
+        List<TopKRanker> rankers = evaluate(ranges, (p, from, to) -> {
+            TopKRanker ranker = new TopKRanker(parts[p], weight, count, bound, query_length, similarity);
+            ranker.collect(k, from, to);
+            return ranker;
+        });
+        if (rankers == null)
+            return null;
+        long scored = 0;
+        for (TopKRanker ranker : rankers)
+            scored += ranker.documentsScored();
+        documentsScored = scored;
+        postingsTouched = touched(parts);
+        return TopKRanker.merge(rankers.toArray(new TopKRanker[0]), k);
+    }
 
-                    double len_d = 0.0;
-                    if (normalizationType == NormalizationType.NUMBER_OF_WORDS) {
-                        len_d = this.index.docLengths.get(entry.docID);
-                    } else { // EUCLIDEAN
-                        len_d = this.docLengths.get(entry.docID);
-                    }
+    //
+    // Evaluating queries in ranges of docIDs
+    //
 
-                    double tf_idf_df = tf_df * Math.log(N / df_t) / len_d;
+    /** Evaluates a query on the documents of range p, from docID from up to (but not including) to. */
+    private interface RangeQuery<T> {
+        T evaluate(int p, int from, int to);
+    }
 
-                    score += tf_idf_df;
-                }
-            }
-            PostingsEntry entry_new = new PostingsEntry(entry.docID);
-            entry_new.addScore(score);
-            result_new.insert(entry_new);
+    /**
+     * Returns the bounds of the ranges of docIDs a query is split into: range
+     * p goes from bounds[p] up to bounds[p+1]. Every range has at least
+     * MIN_PARTITION_SIZE docIDs, and the last one has no upper bound.
+     */
+    private int[] ranges(IndexReader index) {
+        if (num_partitions == 1)
+            return new int[] { 0, PostingsCursor.NO_MORE_DOCS };
+        int limit = index.getDocIDLimit();
+        int n = Math.max(1, Math.min(num_partitions, limit / MIN_PARTITION_SIZE));
+        int[] bounds = new int[n + 1];
+        for (int p = 1; p < n; p++)
+            bounds[p] = (int) ((long) limit * p / n);
+        bounds[n] = PostingsCursor.NO_MORE_DOCS;
+        return bounds;
+    }
+
+    /**
+     * Returns a cursor per term for each of n ranges: the given ones for the
+     * first range, and new ones from the sources for the others. All
+     * cursors are opened on the calling thread.
+     */
+    private PostingsCursor[][] open(PostingsCursor[] cursors, List<Supplier<PostingsCursor>> sources, int n) {
+        PostingsCursor[][] parts = new PostingsCursor[n][];
+        parts[0] = cursors;
+        for (int p = 1; p < n; p++) {
+            parts[p] = new PostingsCursor[cursors.length];
+            for (int t = 0; t < cursors.length; t++)
+                parts[p][t] = sources.get(t).get();
         }
+        return parts;
+    }
 
-        Collections.sort(result_new.get_list());
+    /**
+     * Evaluates a query on each range, in parallel if there are several,
+     * and returns the results in range order, or null if a range failed.
+     */
+    private <T> List<T> evaluate(int[] bounds, RangeQuery<T> query) {
+        int n = bounds.length - 1;
+        if (n == 1)
+            return Collections.singletonList(query.evaluate(0, bounds[0], bounds[1]));
+        ArrayList<Callable<T>> tasks = new ArrayList<>();
+        for (int p = 0; p < n; p++) {
+            int range = p;
+            tasks.add(() -> query.evaluate(range, bounds[range], bounds[range + 1]));
+        }
+        ArrayList<T> results = new ArrayList<>();
+        try {
+            for (Future<T> result : pool.invokeAll(tasks))
+                results.add(result.get());
+        } catch (InterruptedException | ExecutionException e) {
+            e.printStackTrace();
+            return null;
+        }
+        return results;
+    }
 
-        return result_new;
+    /** Returns the number of postings read by the cursors of all ranges. */
+    private long touched(PostingsCursor[][] parts) {
+        long touched = 0;
+        for (PostingsCursor[] cursors : parts)
+            for (PostingsCursor cursor : cursors)
+                touched += cursor.touched();
+        return touched;
     }
 
     public PostingsList get_result_pagerank(Query query) {
+        return get_result_pagerank(index.snapshot(), query);
+    }
+
+    private PostingsList get_result_pagerank(IndexReader index, Query query) {
 
         ArrayList<String> terms = new ArrayList<>();
         int num_terms = query.queryterm.size();
@@ -590,14 +879,14 @@ public class Searcher {
 
         for (String term : terms) {
             try {
-                PostingsList list = this.index.getPostings(term);
-
-                for (PostingsEntry entry : list.get_filtered_list()) {
-                    if (!docIDs.contains(entry.docID)) {
-                        double docScore = this.docs.get(entry.docID).docScore;
-                        entry.addScore(docScore);
-                        result.insert(entry);
-                        docIDs.add(entry.docID);
+                PostingsList list = index.getPostings(term);
+
+                for (int i = 0; i < list.size(); i++) {
+                    int docID = list.docID(i);
+                    if (!docIDs.contains(docID)) {
+                        double docScore = this.docs.get(docID).docScore;
+                        result.addDoc(docID, docScore);
+                        docIDs.add(docID);
                     }
                 }
             } catch (Exception e) {
@@ -608,14 +897,18 @@ public class Searcher {
         if (result.size() == 0)
             return null;
 
-        Collections.sort(result.get_list());
+        result.sortByScore();
 
         return result;
     }
 
     public PostingsList get_result_combined(Query query, NormalizationType normalizationType) {
-        PostingsList result_tfidf = this.get_result_tfidf(query, normalizationType);
-        PostingsList result_pagerank = this.get_result_pagerank(query);
+        return get_result_combined(index.snapshot(), query, normalizationType);
+    }
+
+    private PostingsList get_result_combined(IndexReader index, Query query, NormalizationType normalizationType) {
+        PostingsList result_tfidf = this.get_result_tfidf(index, query, normalizationType);
+        PostingsList result_pagerank = this.get_result_pagerank(index, query);
 
         PostingsList result_combined = new PostingsList();
 
@@ -623,19 +916,17 @@ public class Searcher {
         double b = 1 - a; // page rank
 
         for (int i = 0; i < result_tfidf.size(); i++) {
-            double score1 = result_tfidf.get(i).score;
-            double score2 = result_pagerank.get(i).score;
+            double score1 = result_tfidf.score(i);
+            double score2 = result_pagerank.score(i);
 
             double score_combined = a * score1 + b * score2;
 
-            PostingsEntry entry_combined = new PostingsEntry(result_tfidf.get(i).docID);
-            entry_combined.addScore(score_combined);
-            result_combined.insert(entry_combined);
+            result_combined.addDoc(result_tfidf.docID(i), score_combined);
         }
         return result_combined;
     }
 
-    private PostingsList get_HITS(Query query) {
+    private PostingsList get_HITS(IndexReader index, Query query) {
 
         ArrayList<String> terms = new ArrayList<>();
         int num_terms = query.queryterm.size();
@@ -647,12 +938,13 @@ public class Searcher {
 
         for (String term : terms) {
             try {
-                PostingsList list = this.index.getPostings(term);
+                PostingsList list = index.getPostings(term);
 
-                for (PostingsEntry entry : list.get_filtered_list()) {
-                    if (!docIDs.contains(entry.docID)) {
-                        result.insert(entry);
-                        docIDs.add(entry.docID);
+                for (int i = 0; i < list.size(); i++) {
+                    int docID = list.docID(i);
+                    if (!docIDs.contains(docID)) {
+                        result.addDoc(docID);
+                        docIDs.add(docID);
                     }
                 }
 
@@ -667,11 +959,11 @@ public class Searcher {
         String linksFileLoc = "pagerank/linksDavis.txt";
         String titlesFileLoc = "pagerank/davisTitles.txt";
 
-        HITSRanker ranker = new HITSRanker(linksFileLoc, titlesFileLoc, null);
+        HITSRanker ranker = new HITSRanker(linksFileLoc, titlesFileLoc, index);
 
         result = ranker.rank(result);
 
-        Collections.sort(result.get_list());
+        result.sortByScore();
 
         return result;
     }
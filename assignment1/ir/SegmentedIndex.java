@@ -0,0 +1,933 @@
+/*
+ *   This file is part of the computer assignment for the
+ *   Information Retrieval course at KTH.
+ */
+
+package ir;
+
+import java.io.*;
+import java.util.*;
+
+
+/*
+ *   Implements an inverted index as a sequence of segments on disk, each of
+ *   which is a PersistentHashedIndex in its own directory.
+ *
+ *   An update only indexes the files that are new, or whose modification
+ *   time or size has changed, since the previous update. They go into a new
+ *   segment. Documents that were changed or removed are marked in a
+ *   tombstone bitmap, and are left out of all postings lists. When there
+ *   are too many segments, the newest ones are merged in the background.
+ *
+ *   Every segment holds a consecutive range of docIDs, and the segments are
+ *   kept in docID order, so the postings lists of a term can be put
+ *   together by concatenating them segment by segment.
+ *
+ *   The list of segments, the tombstones and the record of indexed files
+ *   are committed together as one Generation. A segment directory is only
+ *   removed when no kept generation refers to it any more, so falling back
+ *   to the previous generation always finds its segments.
+ *
+ *   Searches read the index through an immutable View of the live segments
+ *   and the tombstones. An update or a merge publishes a new view at once
+ *   when it is done, so searches neither wait for it nor see it half done.
+ */
+public class SegmentedIndex implements Index {
+
+    /** The file listing the segments */
+    public static final String SEGMENTS_FNAME = "segments";
+
+    /** The file holding the tombstone bitmap */
+    public static final String DELETED_FNAME = "deleted";
+
+    /** The file recording the indexed files */
+    public static final String FILES_FNAME = "files";
+
+    /** The directory names of segments start with this prefix */
+    public static final String SEGMENT_PREFIX = "seg";
+
+    /** Segments are merged in the background when there are more than this many. */
+    public static final int MAX_SEGMENTS = 4;
+
+    /** The directory where the segments and the generations listing them are stored. */
+    String dir = PersistentHashedIndex.INDEXDIR;
+
+    /** If true, the segments are read through memory mappings. */
+    boolean memory_mapped;
+
+    /** The load factor of the dictionaries of new segments. */
+    double load_factor = PersistentHashedIndex.DEFAULT_LOAD_FACTOR;
+
+    /** The memory budget of new segments, or 0 for the default. */
+    long memory_budget = 0L;
+
+    /** The cache of the postings lists of the segments, or null, and the number of terms pinned per segment. */
+    PostingsCache postings_cache = null;
+    int pinned_terms = 0;
+
+    /** The live segments in docID order. The list is replaced, never modified. */
+    List<Segment> segments = new ArrayList<Segment>();
+
+    /** The segment written by the current update, or null if no update is going on. */
+    Segment current = null;
+
+    /** The docIDs of deleted documents, including those deleted by the current update. */
+    BitSet deleted = new BitSet();
+
+    /** What searches see of the index. */
+    volatile View view;
+
+    /** Incremented whenever a new view is published. */
+    volatile long version = 0;
+
+    /** The docID that the next indexed document will get. */
+    int next_doc = 0;
+
+    /** The number used in the name of the next segment. */
+    int next_segment = 0;
+
+    /** The indexed files that are still live, by path. */
+    HashMap<String,FileInfo> files = new HashMap<String,FileInfo>();
+
+    /** The files indexed by the current update, by path. */
+    HashMap<String,FileInfo> new_files = new HashMap<String,FileInfo>();
+
+    /** The thread merging segments, or null. */
+    Thread merger = null;
+
+
+    /**
+     *   One segment, holding the documents with docIDs from
+     *   <code>first_doc</code> up to (but not including) <code>end_doc</code>.
+     */
+    static class Segment {
+        String name;
+        int first_doc;
+        int end_doc;
+        PersistentHashedIndex index;
+
+        Segment( String name, int first_doc, int end_doc ) {
+            this.name = name;
+            this.first_doc = first_doc;
+            this.end_doc = end_doc;
+        }
+    }
+
+
+    /**
+     *   What searches see of the index: the live segments and the deleted
+     *   documents as of the last committed update or merge. A view is never
+     *   modified, and reads the segments through snapshots taken when it
+     *   was published. A search takes the current view once (see
+     *   snapshot()) and reads only from it.
+     */
+    static class View implements IndexReader {
+        /** The live segments in docID order. */
+        final List<Segment> segments;
+
+        /** The snapshots of the indexes of the segments, in the same order. */
+        final IndexReader[] indexes;
+
+        /** The docIDs of deleted documents. */
+        final BitSet deleted;
+
+        /** The docIDs of all documents in the segments are below this. */
+        final int end_doc;
+
+        /** The number of live documents in the segments. */
+        final int live_docs;
+
+        /** The sum of the lengths of the live documents. */
+        final long live_length;
+
+        /** The version of the index when this view was published. */
+        final long version;
+
+        View( List<Segment> segments, BitSet deleted, int end_doc, long version ) {
+            this.segments = segments;
+            this.deleted = deleted;
+            this.end_doc = end_doc;
+            this.version = version;
+            indexes = new IndexReader[segments.size()];
+            int n = 0;
+            long length = 0;
+            for ( int i=0; i<indexes.length; i++ ) {
+                Segment segment = segments.get(i);
+                IndexReader index = indexes[i] = segment.index.snapshot();
+                n += index.getNumberOfDocs();
+                length += index.getTotalLength();
+                for ( int docID = deleted.nextSetBit( segment.first_doc ); docID >= 0 && docID < segment.end_doc; docID = deleted.nextSetBit( docID+1 )) {
+                    if ( index.getDocName( docID ) != null ) {
+                        n--;
+                        length -= index.getDocLength( docID );
+                    }
+                }
+            }
+            live_docs = n;
+            live_length = length;
+        }
+
+        /** Returns true if a document of the given segment has been deleted. */
+        boolean hasDeletions( Segment segment ) {
+            int deletion = deleted.nextSetBit( segment.first_doc );
+            return deletion >= 0 && deletion < segment.end_doc;
+        }
+
+        /** Returns the snapshot of the live segment holding the given docID, or null. */
+        IndexReader indexOf( int docID ) {
+            for ( int i=0; i<indexes.length; i++ ) {
+                Segment segment = segments.get(i);
+                if ( docID >= segment.first_doc && docID < segment.end_doc ) {
+                    return indexes[i];
+                }
+            }
+            return null;
+        }
+
+        /**
+         *  Returns the postings for a specific term from all live segments,
+         *  leaving out deleted documents, or null if the term is not in the index.
+         */
+        public PostingsList getPostings( String token ) {
+            PostingsList result = null;
+            for ( int s=0; s<indexes.length; s++ ) {
+                PostingsList list = indexes[s].getPostings( token );
+                if ( list == null ) {
+                    continue;
+                }
+                if ( result == null && !hasDeletions( segments.get(s) ) && indexes.length == 1 ) {
+                    return list;
+                }
+                if ( result == null ) {
+                    result = new PostingsList();
+                }
+                for ( int i=0; i<list.size(); i++ ) {
+                    if ( !deleted.get( list.docID(i) )) {
+                        result.addDoc( list, i );
+                    }
+                }
+            }
+            return result == null || result.size() == 0 ? null : result;
+        }
+
+        /**
+         *  Returns a cursor over the postings for a specific term in all live
+         *  segments, leaving out deleted documents, or null if the term is
+         *  not in the index.
+         *
+         *  The size of the cursor, which ranking takes as the document
+         *  frequency, counts the deleted documents until their segment is
+         *  merged, like getCollectionFrequency and getMaxNormalizedTf.
+         *  Counting only the live ones would mean reading the whole list
+         *  before the search starts.
+         */
+        public PostingsCursor getCursor( String token ) {
+            ArrayList<PostingsCursor> cursors = new ArrayList<PostingsCursor>();
+            ArrayList<Integer> ends = new ArrayList<Integer>();
+            int size = 0;
+            for ( int s=0; s<indexes.length; s++ ) {
+                PostingsCursor cursor = indexes[s].getCursor( token );
+                if ( cursor != null ) {
+                    cursors.add( cursor );
+                    ends.add( segments.get(s).end_doc );
+                    size += cursor.size();
+                }
+            }
+            if ( cursors.isEmpty() ) {
+                return null;
+            }
+            return new SegmentsCursor( cursors.toArray( new PostingsCursor[0] ), ends.stream().mapToInt( Integer::intValue ).toArray(), size, deleted );
+        }
+
+        /**
+         *  Returns the largest normalized term frequency of a term in any
+         *  segment. Deleted documents are included, which can only make the
+         *  bound larger than needed.
+         */
+        public double getMaxNormalizedTf( String token ) {
+            double max = 0;
+            for ( IndexReader index : indexes ) {
+                max = Math.max( max, index.getMaxNormalizedTf( token ));
+            }
+            return max;
+        }
+
+        public String getDocName( int docID ) {
+            IndexReader index = indexOf( docID );
+            return index == null || deleted.get( docID ) ? null : index.getDocName( docID );
+        }
+
+        /**
+         *  Returns the length of a document. The lengths and norms of deleted
+         *  documents are kept until their segment is merged, so that a search
+         *  that found a document before it was deleted can still score it.
+         */
+        public int getDocLength( int docID ) {
+            IndexReader index = indexOf( docID );
+            return index == null ? 0 : index.getDocLength( docID );
+        }
+
+        public int getDocID( String fileName ) {
+            for ( int i=indexes.length-1; i>=0; i-- ) {
+                int docID = indexes[i].getDocID( fileName );
+                if ( docID >= 0 && !deleted.get( docID )) {
+                    return docID;
+                }
+            }
+            return -1;
+        }
+
+        public int getNumberOfDocs() {
+            return live_docs;
+        }
+
+        public int getNorm( int docID ) {
+            IndexReader index = indexOf( docID );
+            return index == null ? 0 : index.getNorm( docID );
+        }
+
+        public long getTotalLength() {
+            return live_length;
+        }
+
+        /**
+         *  Returns the Euclidean length of a document, with the idf of the
+         *  terms as it was in the segment when the segment was written.
+         */
+        public double getEuclideanLength( int docID ) {
+            IndexReader index = indexOf( docID );
+            return index == null ? 0 : index.getEuclideanLength( docID );
+        }
+
+        /**
+         *  Returns the number of occurrences of a term in all segments.
+         *  Occurrences in deleted documents are counted until their segment
+         *  is merged.
+         */
+        public long getCollectionFrequency( String token ) {
+            long cf = 0;
+            for ( IndexReader index : indexes ) {
+                cf += index.getCollectionFrequency( token );
+            }
+            return cf;
+        }
+
+        public int getDocIDLimit() {
+            return end_doc;
+        }
+
+        public long getVersion() {
+            return version;
+        }
+    }
+
+
+    /**
+     *   What is known about an indexed file when it was indexed.
+     */
+    static class FileInfo {
+        int docID;
+        long mtime;
+        long size;
+
+        FileInfo( int docID, long mtime, long size ) {
+            this.docID = docID;
+            this.mtime = mtime;
+            this.size = size;
+        }
+    }
+
+
+    /**
+     *  Constructor. Opens the segments listed in the index directory, if any.
+     */
+    public SegmentedIndex( boolean memory_mapped ) {
+        this.memory_mapped = memory_mapped;
+        new File( dir ).mkdirs();
+        Generation g = Generation.latest( dir );
+        if ( g != null ) {
+            try {
+                readSegments( g );
+                readDeleted( g );
+                readFiles( g );
+            } catch ( IOException e ) {
+                e.printStackTrace();
+            }
+        }
+        publish();
+    }
+
+
+    /** Sets the load factor of the dictionaries of new segments. */
+    public void setLoadFactor( double load_factor ) {
+        this.load_factor = load_factor;
+    }
+
+
+    /**
+     *  Caches the decoded postings lists of all segments in one cache, and
+     *  pins the lists of the most frequent terms of every segment.
+     */
+    public void setPostingsCache( PostingsCache cache, int pinned_terms ) {
+        this.postings_cache = cache;
+        this.pinned_terms = pinned_terms;
+        for ( Segment segment : segments ) {
+            segment.index.setPostingsCache( cache, pinned_terms );
+        }
+    }
+
+
+    /** Sets the memory budget (in bytes) of new segments. */
+    public void setMemoryBudget( long memory_budget ) {
+        this.memory_budget = memory_budget;
+    }
+
+
+    /** Returns the docID that the next indexed document should get. */
+    public int getNextDocID() {
+        return next_doc;
+    }
+
+    public int getDocIDLimit() {
+        return view.getDocIDLimit();
+    }
+
+    public long getVersion() {
+        return version;
+    }
+
+
+    // ==================================================================
+
+
+    /**
+     *  Starts an update of the index. Compares the files under the given
+     *  directories with the files that were indexed before, marks documents
+     *  whose file has changed or disappeared as deleted, and opens a new
+     *  segment for the new and changed files.
+     *
+     *  @return The files to index, to be numbered from {@link #getNextDocID}
+     *          in list order.
+     */
+    public List<File> beginUpdate( List<String> dirNames ) {
+        waitForMerge();
+        ArrayList<File> all = new ArrayList<File>();
+        for ( String dirName : dirNames ) {
+            Indexer.listFiles( new File( dirName ), all );
+        }
+        HashSet<String> seen = new HashSet<String>();
+        ArrayList<File> changed = new ArrayList<File>();
+        new_files.clear();
+        for ( File f : all ) {
+            String path = f.getPath();
+            seen.add( path );
+            FileInfo info = files.get( path );
+            long mtime = f.lastModified();
+            long size = f.length();
+            if ( info != null && info.mtime == mtime && info.size == size ) {
+                continue;
+            }
+            if ( info != null ) {
+                delete( info.docID );
+            }
+            new_files.put( path, new FileInfo( next_doc + changed.size(), mtime, size ));
+            changed.add( f );
+        }
+        Iterator<Map.Entry<String,FileInfo>> it = files.entrySet().iterator();
+        while ( it.hasNext() ) {
+            Map.Entry<String,FileInfo> e = it.next();
+            if ( !seen.contains( e.getKey() )) {
+                delete( e.getValue().docID );
+                it.remove();
+            }
+        }
+        System.err.println( changed.size() + " new or changed files, " + deleted.cardinality() + " deleted documents" );
+        current = new Segment( SEGMENT_PREFIX + next_segment++, next_doc, next_doc + changed.size() );
+        current.index = openSegment( current, true );
+        return changed;
+    }
+
+
+    /**
+     *  Marks a document as deleted. Searches see the deletion when the
+     *  update is committed.
+     */
+    void delete( int docID ) {
+        deleted.set( docID );
+    }
+
+
+    /**
+     *  Opens the persistent index of a segment. If <code>create</code> is true,
+     *  any leftovers of an earlier, unfinished segment with the same name
+     *  are removed first.
+     */
+    private PersistentHashedIndex openSegment( Segment segment, boolean create ) {
+        String segment_dir = dir + "/" + segment.name;
+        if ( create ) {
+            Generation.deleteDirectory( new File( segment_dir ));
+        }
+        PersistentHashedIndex index = new PersistentHashedIndex( segment_dir, memory_mapped );
+        index.setDocRange( segment.first_doc, segment.end_doc );
+        if ( postings_cache != null ) {
+            index.setPostingsCache( postings_cache, pinned_terms );
+        }
+        if ( create ) {
+            index.setLoadFactor( load_factor );
+            if ( memory_budget > 0 ) {
+                index.setMemoryBudget( memory_budget );
+            }
+        }
+        return index;
+    }
+
+
+    // ==================================================================
+
+
+    /**
+     *  Inserts this token in the segment being written.
+     */
+    public void insert( String token, int docID, int offset ) {
+        current.index.insert( token, docID, offset );
+    }
+
+
+    /**
+     *  Appends the postings of a term to the segment being written.
+     */
+    public void insertAll( String token, PostingsList postings ) {
+        current.index.insertAll( token, postings );
+    }
+
+
+    /**
+     *  Returns the segments as they are now. Searches that read them are not
+     *  affected by later updates and merges.
+     */
+    public IndexReader snapshot() {
+        return view;
+    }
+
+    public PostingsList getPostings( String token ) {
+        return view.getPostings( token );
+    }
+
+    public PostingsCursor getCursor( String token ) {
+        return view.getCursor( token );
+    }
+
+    public double getMaxNormalizedTf( String token ) {
+        return view.getMaxNormalizedTf( token );
+    }
+
+
+    /**
+     *   Runs through the cursors of consecutive segments one after the
+     *   other, leaving out deleted documents.
+     */
+    private static class SegmentsCursor implements PostingsCursor {
+
+        /** The cursors, and the end of the docID range of their segments. */
+        private PostingsCursor[] cursors;
+        private int[] ends;
+
+        /** The cursor of the current document. */
+        private int current = 0;
+
+        private int docID = -1;
+
+        /** The number of documents, including deleted ones (see View.getCursor). */
+        private int size;
+
+        /** The deleted documents of the view the cursors were taken from. */
+        private BitSet deleted;
+
+        SegmentsCursor( PostingsCursor[] cursors, int[] ends, int size, BitSet deleted ) {
+            this.cursors = cursors;
+            this.ends = ends;
+            this.size = size;
+            this.deleted = deleted;
+        }
+
+        public int docID() {
+            return docID;
+        }
+
+        public int nextDoc() {
+            return skipDeleted( next() );
+        }
+
+        public int advance( int target ) {
+            while ( current < cursors.length && ends[current] <= target ) {
+                current++;
+            }
+            if ( current == cursors.length ) {
+                return docID = NO_MORE_DOCS;
+            }
+            docID = cursors[current].advance( target );
+            if ( docID == NO_MORE_DOCS ) {
+                current++;
+                next();
+            }
+            return skipDeleted( docID );
+        }
+
+        /** Moves to the next document, deleted or not. */
+        private int next() {
+            while ( current < cursors.length ) {
+                docID = cursors[current].nextDoc();
+                if ( docID != NO_MORE_DOCS ) {
+                    return docID;
+                }
+                current++;
+            }
+            return docID = NO_MORE_DOCS;
+        }
+
+        private int skipDeleted( int d ) {
+            while ( d != NO_MORE_DOCS && deleted.get( d )) {
+                d = next();
+            }
+            return d;
+        }
+
+        public int tf() {
+            return cursors[current].tf();
+        }
+
+        public int position( int k ) {
+            return cursors[current].position( k );
+        }
+
+        public int size() {
+            return size;
+        }
+
+        public long touched() {
+            long n = 0;
+            for ( PostingsCursor cursor : cursors ) {
+                n += cursor.touched();
+            }
+            return n;
+        }
+    }
+
+
+    /**
+     *  Commits the segment written by the current update and records the
+     *  update, then starts merging segments in the background if there are
+     *  too many.
+     */
+    public void cleanup() {
+        if ( current == null ) {
+            return;
+        }
+        ArrayList<Segment> updated = new ArrayList<Segment>( segments );
+        if ( current.end_doc > current.first_doc ) {
+            current.index.cleanup();
+            updated.add( current );
+        } else {
+            Generation.deleteDirectory( new File( dir + "/" + current.name ));
+        }
+        next_doc = current.end_doc;
+        files.putAll( new_files );
+        new_files.clear();
+        current = null;
+        segments = updated;
+        publish();
+        try {
+            writeState();
+        } catch ( IOException e ) {
+            e.printStackTrace();
+        }
+        maybeMerge();
+    }
+
+
+    // ==================================================================
+
+
+    /**
+     *  Starts merging the newest segments in the background if there are
+     *  more than MAX_SEGMENTS of them. The merged run starts at the first
+     *  segment that has no more documents than all later segments together,
+     *  so large old segments are only rewritten once enough has been added.
+     */
+    synchronized void maybeMerge() {
+        final List<Segment> live = segments;
+        int n = live.size();
+        if ( n <= MAX_SEGMENTS || merger != null ) {
+            return;
+        }
+        int start = n - 2;
+        int later = 0;
+        for ( int i=n-1; i>0; i-- ) {
+            later += live.get(i).end_doc - live.get(i).first_doc;
+            int size = live.get(i-1).end_doc - live.get(i-1).first_doc;
+            if ( size <= later ) {
+                start = i-1;
+            }
+        }
+        final List<Segment> group = new ArrayList<Segment>( live.subList( start, n ));
+        merger = new Thread( () -> merge( group ), "segment-merger" );
+        merger.setDaemon( true );
+        merger.start();
+    }
+
+
+    /**
+     *  Merges consecutive segments into one new segment, leaving out
+     *  deleted documents, and replaces them by it.
+     */
+    private void merge( List<Segment> group ) {
+        Segment merged;
+        synchronized ( this ) {
+            merged = new Segment( SEGMENT_PREFIX + next_segment++, group.get(0).first_doc, group.get(group.size()-1).end_doc );
+        }
+        System.err.println( "Merging " + group.size() + " segments into " + merged.name );
+        merged.index = openSegment( merged, true );
+        HashMap<Integer,String> names = new HashMap<Integer,String>();
+        HashMap<Integer,Integer> lengths = new HashMap<Integer,Integer>();
+        for ( Segment segment : group ) {
+            for ( int docID=segment.first_doc; docID<segment.end_doc; docID++ ) {
+                String name = segment.index.getDocName( docID );
+                if ( name != null && !deleted.get( docID )) {
+                    names.put( docID, name );
+                    lengths.put( docID, segment.index.getDocLength( docID ));
+                }
+            }
+        }
+        merged.index.setDocInfo( names, lengths );
+        // The segments are in docID order, so each one appends its postings
+        // lists, with the runs of documents between deleted ones copied whole
+        for ( Segment segment : group ) {
+            for ( String term : segment.index.getTerms() ) {
+                PostingsList list = segment.index.getPostings( term );
+                PostingsList live = new PostingsList();
+                int start = 0;
+                for ( int i=0; i<=list.size(); i++ ) {
+                    if ( i == list.size() || deleted.get( list.docID(i) )) {
+                        live.addAll( list, start, i );
+                        start = i+1;
+                    }
+                }
+                if ( live.size() > 0 ) {
+                    merged.index.insertAll( term, live );
+                }
+            }
+        }
+        merged.index.cleanup();
+
+        synchronized ( this ) {
+            ArrayList<Segment> updated = new ArrayList<Segment>();
+            for ( Segment segment : segments ) {
+                if ( segment == group.get(0) ) {
+                    updated.add( merged );
+                } else if ( !group.contains( segment )) {
+                    updated.add( segment );
+                }
+            }
+            segments = updated;
+            publish();
+            for ( Segment segment : group ) {
+                segment.index.forgetCachedPostings();
+            }
+            try {
+                writeState();
+            } catch ( IOException e ) {
+                e.printStackTrace();
+            }
+            merger = null;
+        }
+        System.err.println( "Merged segments into " + merged.name );
+    }
+
+
+    /**
+     *  Waits until a running background merge is done.
+     */
+    void waitForMerge() {
+        Thread t;
+        synchronized ( this ) {
+            t = merger;
+        }
+        if ( t != null ) {
+            try {
+                t.join();
+            } catch ( InterruptedException e ) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+
+    // ==================================================================
+
+
+    /**
+     *  Commits the list of segments, the tombstones and the indexed files as
+     *  a new generation, and removes the segments no kept generation uses.
+     */
+    synchronized void writeState() throws IOException {
+        Generation g = Generation.create( dir );
+        try (PrintWriter out = new PrintWriter( new FileWriter( g.file( SEGMENTS_FNAME )))) {
+            out.println( next_doc + ";" + next_segment );
+            for ( Segment segment : segments ) {
+                out.println( segment.name + ";" + segment.first_doc + ";" + segment.end_doc );
+            }
+        }
+        try (DataOutputStream out = new DataOutputStream( new BufferedOutputStream( new FileOutputStream( g.file( DELETED_FNAME ))))) {
+            long[] words = deleted.toLongArray();
+            out.writeInt( words.length );
+            for ( long word : words ) {
+                out.writeLong( word );
+            }
+        }
+        try (PrintWriter out = new PrintWriter( new BufferedWriter( new FileWriter( g.file( FILES_FNAME ))))) {
+            for ( Map.Entry<String,FileInfo> e : files.entrySet() ) {
+                FileInfo info = e.getValue();
+                out.println( info.docID + ";" + info.mtime + ";" + info.size + ";" + e.getKey() );
+            }
+        }
+        g.commit( SEGMENTS_FNAME, DELETED_FNAME, FILES_FNAME );
+        removeUnusedSegments( Generation.prune( dir, g ));
+    }
+
+
+    /**
+     *  Deletes the segment directories that are not listed in any of the
+     *  given generations. Searches that started before a merge was swapped
+     *  in may still read the merged segments; their open files stay
+     *  readable after being unlinked.
+     */
+    private void removeUnusedSegments( List<Generation> kept ) {
+        HashSet<String> used = new HashSet<String>();
+        for ( Generation g : kept ) {
+            try (BufferedReader br = new BufferedReader( new FileReader( g.file( SEGMENTS_FNAME )))) {
+                br.readLine();
+                String line;
+                while ((line = br.readLine()) != null) {
+                    used.add( line.split( ";" )[0] );
+                }
+            } catch ( IOException e ) {
+                e.printStackTrace();
+                return;
+            }
+        }
+        String[] names = new File( dir ).list();
+        for ( String name : names ) {
+            if ( name.startsWith( SEGMENT_PREFIX ) && !used.contains( name )) {
+                Generation.deleteDirectory( new File( dir, name ));
+            }
+        }
+    }
+
+
+    /**
+     *  Reads the list of segments and opens them.
+     */
+    private void readSegments( Generation g ) throws IOException {
+        File file = new File( g.file( SEGMENTS_FNAME ));
+        ArrayList<Segment> live = new ArrayList<Segment>();
+        try (BufferedReader br = new BufferedReader( new FileReader( file ))) {
+            String[] header = br.readLine().split( ";" );
+            next_doc = Integer.parseInt( header[0] );
+            next_segment = Integer.parseInt( header[1] );
+            String line;
+            while ((line = br.readLine()) != null) {
+                String[] data = line.split( ";" );
+                Segment segment = new Segment( data[0], Integer.parseInt( data[1] ), Integer.parseInt( data[2] ));
+                segment.index = openSegment( segment, false );
+                live.add( segment );
+            }
+        }
+        segments = live;
+    }
+
+
+    /**
+     *  Reads the tombstone bitmap.
+     */
+    private void readDeleted( Generation g ) throws IOException {
+        File file = new File( g.file( DELETED_FNAME ));
+        try (DataInputStream in = new DataInputStream( new BufferedInputStream( new FileInputStream( file )))) {
+            long[] words = new long[in.readInt()];
+            for ( int i=0; i<words.length; i++ ) {
+                words[i] = in.readLong();
+            }
+            deleted = BitSet.valueOf( words );
+        }
+    }
+
+
+    /**
+     *  Reads the record of indexed files.
+     */
+    private void readFiles( Generation g ) throws IOException {
+        File file = new File( g.file( FILES_FNAME ));
+        try (BufferedReader br = new BufferedReader( new FileReader( file ))) {
+            String line;
+            while ((line = br.readLine()) != null) {
+                String[] data = line.split( ";", 4 );
+                files.put( data[3], new FileInfo( Integer.parseInt( data[0] ), Long.parseLong( data[1] ), Long.parseLong( data[2] )));
+            }
+        }
+    }
+
+
+    /**
+     *  Publishes the live segments and the deleted documents as the view
+     *  that searches read from. The tombstones are copied, so that the
+     *  next update can mark documents without searches seeing it.
+     */
+    private synchronized void publish() {
+        view = new View( segments, (BitSet)deleted.clone(), next_doc, ++version );
+    }
+
+
+    public String getDocName( int docID ) {
+        return view.getDocName( docID );
+    }
+
+    public int getDocLength( int docID ) {
+        return view.getDocLength( docID );
+    }
+
+    public int getDocID( String fileName ) {
+        return view.getDocID( fileName );
+    }
+
+    public int getNumberOfDocs() {
+        return view.getNumberOfDocs();
+    }
+
+    public int getNorm( int docID ) {
+        return view.getNorm( docID );
+    }
+
+    public long getTotalLength() {
+        return view.getTotalLength();
+    }
+
+    public double getEuclideanLength( int docID ) {
+        return view.getEuclideanLength( docID );
+    }
+
+    public long getCollectionFrequency( String token ) {
+        return view.getCollectionFrequency( token );
+    }
+
+    public int get_size() {
+        return current != null ? current.index.get_size() : 0;
+    }
+
+    public String getFileName( String path ) {
+        String result = "";
+        StringTokenizer tok = new StringTokenizer( path, "\\/" );
+        while ( tok.hasMoreTokens() ) {
+            result = tok.nextToken();
+        }
+        return result;
+    }
+}
@@ -0,0 +1,48 @@
+/*
+ *   This file is part of the computer assignment for the
+ *   Information Retrieval course at KTH.
+ */
+
+package ir;
+
+
+/**
+ *   A way of scoring documents for a ranked query, as a sum of one score
+ *   per query term occurring in the document.
+ *
+ *   A similarity is created for one index. The parts of a term's score
+ *   that are the same for every document (such as the idf) are computed
+ *   once per query by termWeight(); score() is then called for every
+ *   posting.
+ */
+public interface Similarity {
+
+    /** Returns the weight of a term that occurs in <code>df</code> documents. */
+    public double termWeight( String term, int df );
+
+    /** Returns the length a document's scores are normalized by. */
+    public double length( int docID );
+
+    /**
+     *  Returns the score a term with the given weight adds to a document of
+     *  the given length, in which it occurs <code>tf</code> times. A term
+     *  that occurs several times in the query adds it once per occurrence.
+     */
+    public double score( double weight, int tf, double length );
+
+    /**
+     *  Returns an upper bound on the score the term adds to any document,
+     *  or infinity if there is none. Ranking with pruning relies on it.
+     */
+    public double maxScore( String term, double weight );
+
+    /**
+     *  Returns a score added once to every document that contains some of
+     *  the query terms, after the scores of the terms. The query has
+     *  <code>queryLength</code> terms, counting repeated terms and terms
+     *  not in the index. It must not be positive.
+     */
+    public default double documentScore( int queryLength, double length ) {
+        return 0;
+    }
+}
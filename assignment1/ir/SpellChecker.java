@@ -116,12 +116,14 @@ public class SpellChecker {
 
     /**
      * Checks spelling of all terms in <code>query</code> and returns up to
-     * <code>limit</code> ranked suggestions for spelling correction.
+     * <code>limit</code> ranked suggestions for spelling correction. There
+     * are none if some term has no candidate corrections.
      */
     public String[] check(Query query, int limit) {
         //
         // YOUR CODE HERE
         //
+        IndexReader index = this.index.snapshot();
         ArrayList<String> terms = new ArrayList<>();
         int num_terms = query.queryterm.size();
         for (int i = 0; i < num_terms; i++) terms.add(query.queryterm.get(i).term);
@@ -143,6 +145,8 @@ public class SpellChecker {
                 for(String kgram: kgrams){
 
                     List<KGramPostingsEntry> plist = kgIndex.getPostings(kgram);
+                    if (plist == null)
+                        continue;
 
                     for(KGramPostingsEntry entry: plist){
                         String term_new = kgIndex.getTermByID(entry.tokenID);
@@ -158,7 +162,7 @@ public class SpellChecker {
                         if(jacc_sim>=JACCARD_THRESHOLD){
                             int editDistance = editDistance(term, term_new);
                             if(editDistance<=MAX_EDIT_DISTANCE){
-                                double score = index.getPostings(term_new).size();
+                                double score = index.getPostings(term_new).collectionFrequency();
                                 if(!added_terms.contains(term_new)) {
                                     temp.add(new KGramStat(term_new, score));
                                     added_terms.add(term_new);
@@ -167,6 +171,8 @@ public class SpellChecker {
                         }
                     }
                 }
+                if (temp.isEmpty())
+                    return new String[0];
                 qCorrections.add(temp);
             }
         }
@@ -0,0 +1,51 @@
+/*
+ *   This file is part of the computer assignment for the
+ *   Information Retrieval course at KTH.
+ */
+
+package ir;
+
+
+/**
+ *   tf-idf: a term adds tf * ln(N/df) to a document, divided by the length
+ *   of the document, either its number of words or its Euclidean length.
+ */
+public class TfIdfSimilarity implements Similarity {
+
+    private IndexReader index;
+
+    private NormalizationType normalization;
+
+    /** The number of documents. */
+    private int N;
+
+
+    public TfIdfSimilarity( IndexReader index, NormalizationType normalization ) {
+        this.index = index;
+        this.normalization = normalization;
+        N = index.getNumberOfDocs();
+    }
+
+    public double termWeight( String term, int df ) {
+        return Math.log( N / (double)df );
+    }
+
+    public double length( int docID ) {
+        if ( normalization == NormalizationType.NUMBER_OF_WORDS ) {
+            return index.getDocLength( docID );
+        }
+        return index.getEuclideanLength( docID );
+    }
+
+    public double score( double weight, int tf, double length ) {
+        return (double)tf * weight / length;
+    }
+
+    /** The bound is only known for the number of words, from the index. */
+    public double maxScore( String term, double weight ) {
+        if ( normalization == NormalizationType.NUMBER_OF_WORDS ) {
+            return weight * index.getMaxNormalizedTf( term );
+        }
+        return Double.POSITIVE_INFINITY;
+    }
+}
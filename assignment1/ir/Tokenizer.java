@@ -105,6 +105,21 @@ public class Tokenizer {
     }
 
 
+    /**
+     *  Prepares the tokenizer for reading from a new reader, so that one
+     *  tokenizer (and its buffer and patterns) can be reused for many files.
+     */
+    public void reset( Reader reader ) {
+        this.reader = reader;
+        ptr = 0;
+        token_start = -1;
+        token_queue.clear();
+        started_reading = false;
+        // An empty file leaves the buffer untouched, so mark it as empty here
+        buf[0] = 0;
+    }
+
+
     /** 
      *  Returns true if the character is a punctuation character.
      */
@@ -0,0 +1,324 @@
+/*
+ *   This file is part of the computer assignment for the
+ *   Information Retrieval course at KTH.
+ */
+
+package ir;
+
+import java.util.Arrays;
+
+
+/**
+ *   Finds the k documents with the highest scores under a Similarity
+ *   without scoring every document that contains a query term (MaxScore
+ *   pruning).
+ *
+ *   The similarity bounds the score each term can add to a document; for
+ *   tf-idf it is idf * (largest tf / length). The terms are sorted by that
+ *   bound, and once k documents
+ *   have been found, the terms whose bounds together stay below the k:th
+ *   score are non-essential: a document containing only those terms cannot
+ *   enter the top k. Documents are taken from the cursors of the essential
+ *   terms only, and the non-essential ones are consulted with advance()
+ *   only while the document can still reach the k:th score. Terms without
+ *   a bound are always essential.
+ *
+ *   The scores and their order are the same as those of the exhaustive
+ *   ranking in the Searcher: contributions are added in query
+ *   order, and documents with equal scores come in the order in which that
+ *   ranking first meets them (by their first query term, then by docID).
+ *
+ *   A ranker can also collect the best documents of one range of docIDs;
+ *   the rankers of disjoint ranges are then merged into the k best of all.
+ */
+public class TopKRanker {
+
+    /**
+     *  The cursors of the terms, with their weights, the number of times
+     *  they occur in the query and their score bounds, sorted by increasing
+     *  bound.
+     */
+    private PostingsCursor[] cursors;
+    private double[] weight;
+    private int[] count;
+    private double[] bound;
+
+    /** The position of each sorted term in the query. */
+    private int[] term;
+
+    /** The sum of the bounds of the sorted terms 0..j. */
+    private double[] cumulative;
+
+    /** The number of terms in the query, with repeated terms and terms not in the index. */
+    private int queryLength;
+
+    /** How documents are scored. */
+    private Similarity similarity;
+
+    /** A min-heap of the best documents found so far, worst on top. */
+    private int[] heapDoc, heapFirst;
+    private double[] heapScore;
+    private int heapSize = 0;
+
+    /** The number of documents whose scores were computed. */
+    private long scored = 0;
+
+
+    /**
+     *  @param cursors The cursors of the distinct query terms, in query order.
+     *  @param weight The weight of each term (see Similarity.termWeight).
+     *  @param count The number of times each term occurs in the query.
+     *  @param bound An upper bound on the score each term can add to a
+     *               document, counting all its occurrences in the query.
+     *  @param queryLength The number of terms in the query (see Similarity.documentScore).
+     *  @param similarity How documents are scored.
+     */
+    public TopKRanker( PostingsCursor[] cursors, double[] weight, int[] count, double[] bound, int queryLength, Similarity similarity ) {
+        int m = cursors.length;
+        Integer[] order = new Integer[m];
+        for ( int j=0; j<m; j++ ) {
+            order[j] = j;
+        }
+        Arrays.sort( order, (a, b) -> Double.compare( bound[a], bound[b] ));
+        this.cursors = new PostingsCursor[m];
+        this.weight = new double[m];
+        this.count = new int[m];
+        this.bound = new double[m];
+        this.term = new int[m];
+        this.cumulative = new double[m];
+        for ( int j=0; j<m; j++ ) {
+            this.cursors[j] = cursors[order[j]];
+            this.weight[j] = weight[order[j]];
+            this.count[j] = count[order[j]];
+            // Leave room for the rounding of the scores
+            this.bound[j] = bound[order[j]] * (1 + 1e-9);
+            this.term[j] = order[j];
+            this.cumulative[j] = (j > 0 ? cumulative[j-1] : 0) + this.bound[j];
+        }
+        this.queryLength = queryLength;
+        this.similarity = similarity;
+    }
+
+
+    /**
+     *  Returns the k best documents with their scores, best first.
+     */
+    public PostingsList rank( int k ) {
+        collect( k, 0, PostingsCursor.NO_MORE_DOCS );
+        return drain();
+    }
+
+
+    /**
+     *  Returns the k best documents of several rankers that have collected
+     *  documents from disjoint ranges of docIDs, best first.
+     */
+    public static PostingsList merge( TopKRanker[] rankers, int k ) {
+        TopKRanker best = rankers[0];
+        for ( int r=1; r<rankers.length; r++ ) {
+            TopKRanker other = rankers[r];
+            for ( int i=0; i<other.heapSize; i++ ) {
+                best.offer( other.heapDoc[i], other.heapFirst[i], other.heapScore[i], k );
+            }
+        }
+        return best.drain();
+    }
+
+
+    /**
+     *  Finds the k best documents with docIDs from <code>from</code> up to
+     *  (but not including) <code>to</code>. The cursors must be positioned
+     *  before their first documents; they skip to the start of the range
+     *  with advance().
+     */
+    public void collect( int k, int from, int to ) {
+        int m = cursors.length;
+        heapDoc = new int[k];
+        heapFirst = new int[k];
+        heapScore = new double[k];
+        heapSize = 0;
+        scored = 0;
+        if ( k == 0 ) {
+            return;
+        }
+        double[] contribution = new double[m];
+        boolean[] present = new boolean[m];
+        for ( PostingsCursor cursor : cursors ) {
+            if ( from > 0 ) {
+                cursor.advance( from );
+            } else {
+                cursor.nextDoc();
+            }
+        }
+
+        // Terms 0..essential-1 are non-essential
+        int essential = 0;
+        double threshold = Double.NEGATIVE_INFINITY;
+        while ( true ) {
+            int doc = PostingsCursor.NO_MORE_DOCS;
+            for ( int j=essential; j<m; j++ ) {
+                doc = Math.min( doc, cursors[j].docID() );
+            }
+            if ( doc >= to ) {
+                break;
+            }
+            Arrays.fill( present, false );
+            double len = similarity.length( doc );
+            double docScore = similarity.documentScore( queryLength, len );
+            double partial = docScore;
+            for ( int j=essential; j<m; j++ ) {
+                if ( cursors[j].docID() == doc ) {
+                    double c = score( j, len );
+                    partial += c;
+                    contribution[term[j]] = c;
+                    present[term[j]] = true;
+                    cursors[j].nextDoc();
+                }
+            }
+            boolean pruned = false;
+            for ( int j=essential-1; j>=0; j-- ) {
+                if ( partial + cumulative[j] < threshold ) {
+                    pruned = true;
+                    break;
+                }
+                if ( cursors[j].docID() < doc ) {
+                    cursors[j].advance( doc );
+                }
+                if ( cursors[j].docID() == doc ) {
+                    double c = score( j, len );
+                    partial += c;
+                    contribution[term[j]] = c;
+                    present[term[j]] = true;
+                }
+            }
+            if ( pruned ) {
+                continue;
+            }
+
+            // The exact score, summed in query order
+            scored++;
+            double score = 0.0;
+            int first = -1;
+            for ( int t=0; t<m; t++ ) {
+                if ( present[t] ) {
+                    score += contribution[t];
+                    if ( first < 0 ) first = t;
+                }
+            }
+            score += docScore;
+            if ( offer( doc, first, score, k ) && heapSize == k ) {
+                threshold = heapScore[0];
+                while ( essential < m && cumulative[essential] < threshold ) {
+                    essential++;
+                }
+            }
+        }
+    }
+
+
+    /** Empties the heap into a list, best first. */
+    private PostingsList drain() {
+        int[] docs = new int[heapSize];
+        double[] scores = new double[heapSize];
+        for ( int i=heapSize-1; i>=0; i-- ) {
+            docs[i] = heapDoc[0];
+            scores[i] = heapScore[0];
+            removeTop();
+        }
+        PostingsList result = new PostingsList();
+        for ( int i=0; i<docs.length; i++ ) {
+            result.addDoc( docs[i], scores[i] );
+        }
+        return result;
+    }
+
+
+    /** Returns the number of documents whose scores were computed by the last call to rank() or collect(). */
+    public long documentsScored() {
+        return scored;
+    }
+
+
+    /** Returns the score the sorted term j adds to the current document of its cursor. */
+    private double score( int j, double len ) {
+        return count[j] * similarity.score( weight[j], cursors[j].tf(), len );
+    }
+
+
+    //
+    //  The heap of the best documents, ordered by score, then by first
+    //  query term and docID (lower is better for both).
+    //
+
+    /** Returns true if document a ranks below document b. */
+    private boolean worse( double scoreA, int firstA, int docA, double scoreB, int firstB, int docB ) {
+        if ( scoreA != scoreB ) return scoreA < scoreB;
+        if ( firstA != firstB ) return firstA > firstB;
+        return docA > docB;
+    }
+
+
+    /** Adds a document to the heap if it is among the k best so far, and returns true if it was added. */
+    private boolean offer( int doc, int first, double score, int k ) {
+        if ( heapSize < k ) {
+            int i = heapSize++;
+            while ( i > 0 ) {
+                int parent = (i - 1) / 2;
+                if ( !worse( score, first, doc, heapScore[parent], heapFirst[parent], heapDoc[parent] )) {
+                    break;
+                }
+                set( i, parent );
+                i = parent;
+            }
+            heapDoc[i] = doc;
+            heapFirst[i] = first;
+            heapScore[i] = score;
+            return true;
+        }
+        if ( !worse( heapScore[0], heapFirst[0], heapDoc[0], score, first, doc )) {
+            return false;
+        }
+        siftDown( doc, first, score );
+        return true;
+    }
+
+
+    /** Removes the worst document from the heap. */
+    private void removeTop() {
+        heapSize--;
+        if ( heapSize > 0 ) {
+            siftDown( heapDoc[heapSize], heapFirst[heapSize], heapScore[heapSize] );
+        }
+    }
+
+
+    /** Puts a document at the top of the heap and moves it down to its place. */
+    private void siftDown( int doc, int first, double score ) {
+        int i = 0;
+        while ( true ) {
+            int child = 2*i + 1;
+            if ( child >= heapSize ) {
+                break;
+            }
+            if ( child + 1 < heapSize && worse( heapScore[child+1], heapFirst[child+1], heapDoc[child+1], heapScore[child], heapFirst[child], heapDoc[child] )) {
+                child++;
+            }
+            if ( !worse( heapScore[child], heapFirst[child], heapDoc[child], score, first, doc )) {
+                break;
+            }
+            set( i, child );
+            i = child;
+        }
+        heapDoc[i] = doc;
+        heapFirst[i] = first;
+        heapScore[i] = score;
+    }
+
+
+    /** Moves the heap element at index from to index to. */
+    private void set( int to, int from ) {
+        heapDoc[to] = heapDoc[from];
+        heapFirst[to] = heapFirst[from];
+        heapScore[to] = heapScore[from];
+    }
+}
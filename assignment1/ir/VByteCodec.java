@@ -0,0 +1,234 @@
+/*
+ *   This file is part of the computer assignment for the
+ *   Information Retrieval course at KTH.
+ */
+
+package ir;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+
+/**
+ *  Stores postings lists with delta and variable-byte encoding.
+ *
+ *  The documents of a list are encoded one after the other: the gap to the
+ *  previous docID, the term frequency, and the gaps between the term's
+ *  offsets in the document. Every number is written 7 bits per byte, with
+ *  the high bit set on the last byte of the number.
+ *
+ *  The encoded list starts with the number of documents. Lists of more than
+ *  SKIP_INTERVAL documents then have a skip table with an entry per block of
+ *  SKIP_INTERVAL documents: the gap from the last docID of the previous
+ *  block to the last docID of the block, and the number of bytes in the
+ *  block. A cursor can thereby skip a block without decoding it.
+ */
+public class VByteCodec implements PostingsCodec {
+
+    /** The bytes encoded so far. */
+    private byte[] out = new byte[64];
+
+    /** The number of bytes used in <code>out</code>. */
+    private int len = 0;
+
+
+    public byte[] encode( PostingsList list ) {
+        len = 0;
+        int n = list.size();
+        int numBlocks = (n + PostingsCursor.SKIP_INTERVAL - 1) / PostingsCursor.SKIP_INTERVAL;
+        int[] blockLast = new int[numBlocks];
+        int[] blockEnd = new int[numBlocks];
+        int lastDocID = 0;
+        for ( int i=0; i<n; i++ ) {
+            int docID = list.docID(i);
+            int tf = list.tf(i);
+            writeVByte( docID - lastDocID );
+            writeVByte( tf );
+            int lastOffset = 0;
+            for ( int k=0; k<tf; k++ ) {
+                int offset = list.position(i, k);
+                writeVByte( offset - lastOffset );
+                lastOffset = offset;
+            }
+            lastDocID = docID;
+            if ( i % PostingsCursor.SKIP_INTERVAL == PostingsCursor.SKIP_INTERVAL - 1 || i == n-1 ) {
+                blockLast[i / PostingsCursor.SKIP_INTERVAL] = docID;
+                blockEnd[i / PostingsCursor.SKIP_INTERVAL] = len;
+            }
+        }
+        byte[] data = Arrays.copyOf( out, len );
+
+        len = 0;
+        writeVByte( n );
+        if ( numBlocks > 1 ) {
+            for ( int b=0; b<numBlocks; b++ ) {
+                writeVByte( blockLast[b] - (b == 0 ? 0 : blockLast[b-1]) );
+                writeVByte( blockEnd[b] - (b == 0 ? 0 : blockEnd[b-1]) );
+            }
+        }
+        byte[] result = Arrays.copyOf( out, len + data.length );
+        System.arraycopy( data, 0, result, len, data.length );
+        return result;
+    }
+
+
+    public PostingsList decode( ByteBuffer buf ) {
+        PostingsList list = new PostingsList();
+        PostingsCursor cursor = cursor( buf );
+        for ( int docID = cursor.nextDoc(); docID != PostingsCursor.NO_MORE_DOCS; docID = cursor.nextDoc() ) {
+            for ( int k=0; k<cursor.tf(); k++ ) {
+                list.insert( docID, cursor.position( k ));
+            }
+        }
+        return list;
+    }
+
+
+    public PostingsCursor cursor( ByteBuffer buf ) {
+        return new Cursor( buf );
+    }
+
+
+    /**
+     *   Decodes an encoded list document by document, skipping whole blocks
+     *   when advancing.
+     */
+    static class Cursor implements PostingsCursor {
+
+        private ByteBuffer buf;
+
+        /** The number of documents and blocks. */
+        private int numDocs, numBlocks;
+
+        /** The last docID of each block, and where each block starts in <code>buf</code>; null if there is one block. */
+        private int[] blockLast, blockStart;
+
+        /** The index of the current document. */
+        private int i = -1;
+
+        /** The current docID, and the last one decoded (the base of the next gap). */
+        private int docID = -1, prev = 0;
+        private int tf = 0;
+        private int[] positions = new int[8];
+
+        /** The number of postings read. */
+        private long touched = 0;
+
+        Cursor( ByteBuffer buf ) {
+            this.buf = buf;
+            numDocs = readVByte( buf );
+            numBlocks = (numDocs + SKIP_INTERVAL - 1) / SKIP_INTERVAL;
+            if ( numBlocks > 1 ) {
+                blockLast = new int[numBlocks];
+                blockStart = new int[numBlocks];
+                int last = 0, length = 0;
+                for ( int b=0; b<numBlocks; b++ ) {
+                    last += readVByte( buf );
+                    blockLast[b] = last;
+                    blockStart[b] = length;
+                    length += readVByte( buf );
+                }
+                int start = buf.position();
+                for ( int b=0; b<numBlocks; b++ ) {
+                    blockStart[b] += start;
+                }
+            }
+        }
+
+        public int docID() {
+            return docID;
+        }
+
+        public int nextDoc() {
+            if ( i+1 >= numDocs ) {
+                i = numDocs;
+                docID = NO_MORE_DOCS;
+                return docID;
+            }
+            i++;
+            touched++;
+            prev += readVByte( buf );
+            docID = prev;
+            tf = readVByte( buf );
+            if ( tf > positions.length ) {
+                positions = new int[Math.max( tf, 2*positions.length )];
+            }
+            int offset = 0;
+            for ( int k=0; k<tf; k++ ) {
+                offset += readVByte( buf );
+                positions[k] = offset;
+            }
+            return docID;
+        }
+
+        public int advance( int target ) {
+            if ( blockLast != null && i+1 < numDocs ) {
+                // Jump to the first block that can hold the target
+                int b = (i+1) / SKIP_INTERVAL;
+                int skip = b;
+                while ( skip < numBlocks-1 && blockLast[skip] < target ) {
+                    touched++;
+                    skip++;
+                }
+                if ( skip > b ) {
+                    buf.position( blockStart[skip] );
+                    prev = blockLast[skip-1];
+                    i = skip * SKIP_INTERVAL - 1;
+                }
+            }
+            nextDoc();
+            while ( docID < target ) {
+                nextDoc();
+            }
+            return docID;
+        }
+
+        public int tf() {
+            return tf;
+        }
+
+        public int position( int k ) {
+            return positions[k];
+        }
+
+        public int size() {
+            return numDocs;
+        }
+
+        public long touched() {
+            return touched;
+        }
+    }
+
+
+    /**
+     *  Appends a non-negative number to <code>out</code>.
+     */
+    private void writeVByte( int n ) {
+        if ( len + 5 > out.length ) {
+            out = Arrays.copyOf( out, 2*out.length + 5 );
+        }
+        while ( n >= 128 ) {
+            out[len++] = (byte)(n & 127);
+            n >>>= 7;
+        }
+        out[len++] = (byte)(n | 128);
+    }
+
+
+    /**
+     *  Reads a number from the current position of <code>buf</code>.
+     */
+    static int readVByte( ByteBuffer buf ) {
+        int n = 0;
+        int shift = 0;
+        while ( true ) {
+            byte b = buf.get();
+            if ( b < 0 ) {
+                return n | ((b & 127) << shift);
+            }
+            n |= b << shift;
+            shift += 7;
+        }
+    }
+}
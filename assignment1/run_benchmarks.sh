@@ -0,0 +1,2 @@
+#!/bin/sh
+java -jar benchmarks/target/benchmarks.jar "$@"
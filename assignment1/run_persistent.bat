@@ -1 +1 @@
-java -cp classes -Xmx1g ir.Engine -d c:\guardian -l ir20.png -p patterns.txt -ni
+java -cp classes -Xmx1g ir.Engine -d c:\guardian -l ir20.png -p patterns.txt -persistent -ni
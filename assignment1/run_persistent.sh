@@ -1,3 +1,3 @@
 #!/bin/sh
-# java -cp classes -Xmx1g ir.Engine -d /home/ali/Desktop/SE_IR/assignment1/testing -l ir20.png -p patterns.txt -ni
-java -cp classes -Xmx1g ir.Engine -d /home/ali/Desktop/SE_IR/assignment1/data/davisWiki -l ir20.png -p patterns.txt -ni
\ No newline at end of file
+# java -cp classes -Xmx1g ir.Engine -d /home/ali/Desktop/SE_IR/assignment1/testing -l ir20.png -p patterns.txt -persistent -ni
+java -cp classes -Xmx1g ir.Engine -d /home/ali/Desktop/SE_IR/assignment1/data/davisWiki -l ir20.png -p patterns.txt -persistent -ni
\ No newline at end of file
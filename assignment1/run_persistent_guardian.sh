@@ -1,2 +1,2 @@
 #!/bin/sh
-java -cp classes -Xmx1g ir.Engine -d /info/DD2476/ir20/lab/guardian -l ir20.png -p patterns.txt -ni
+java -cp classes -Xmx1g ir.Engine -d /info/DD2476/ir20/lab/guardian -l ir20.png -p patterns.txt -persistent -ni